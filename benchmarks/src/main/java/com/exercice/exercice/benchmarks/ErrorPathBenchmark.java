@@ -0,0 +1,79 @@
+package com.exercice.exercice.benchmarks;
+
+import com.exercice.exercice.exceptions.TransactionException;
+import com.exercice.exercice.model.PaymentStatus;
+import com.exercice.exercice.model.Transaction;
+import com.exercice.exercice.service.TransactionService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Cost of refusing a request. Run with -prof gc to compare the bytes allocated per refusal: an exception filling in
+ * its stack trace, as refusals used to, against the stackless and the shared {@link TransactionException}, each
+ * created below a given number of frames, and the refused deletes end to end through the service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ErrorPathBenchmark {
+
+    // Frames above the refusal, a request served by Netty through Reactor operators runs well over a hundred deep
+    @Param({"0", "128"})
+    private int depth;
+
+    private TransactionService transactionService;
+    private String capturedId;
+
+    @Setup
+    public void setUp() {
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+        transactionService = Fixtures.service(repository);
+        Transaction captured = Fixtures.transaction(1);
+        captured.setId("64b7f0c2a1b2c3d4e5f60718");
+        repository.save(captured).block();
+        repository.findAndTransition(captured.getId(), Transaction.builder().status(PaymentStatus.AUTHORIZED).build()).block();
+        repository.findAndTransition(captured.getId(), Transaction.builder().status(PaymentStatus.CAPTURED).build()).block();
+        capturedId = captured.getId();
+    }
+
+    @Benchmark
+    public Throwable withStackTrace() {
+        return below(depth, () -> new Exception("Couldn't find the giving transaction '" + capturedId + "'"));
+    }
+
+    @Benchmark
+    public Throwable stackless() {
+        return below(depth, () -> TransactionException.cannotFind(capturedId));
+    }
+
+    @Benchmark
+    public Throwable shared() {
+        return below(depth, TransactionException::cannotDeleteCaptured);
+    }
+
+    @Benchmark
+    public Throwable deleteCaptured() {
+        return below(depth, () -> refusal(capturedId));
+    }
+
+    @Benchmark
+    public Throwable deleteUnknown() {
+        return below(depth, () -> refusal("64b7f0c2a1b2c3d4e5f60719"));
+    }
+
+    private Throwable refusal(String transactionId) {
+        // Subscribed rather than blocked on, block() would wrap the refusal in an exception of its own
+        Throwable[] refusal = new Throwable[1];
+        transactionService.deleteTransaction(transactionId).subscribe(null, error -> refusal[0] = error);
+        return refusal[0];
+    }
+
+    private static Throwable below(int frames, Supplier<Throwable> error) {
+        return frames == 0 ? error.get() : below(frames - 1, error);
+    }
+}
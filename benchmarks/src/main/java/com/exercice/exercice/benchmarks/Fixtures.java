@@ -0,0 +1,47 @@
+package com.exercice.exercice.benchmarks;
+
+import com.exercice.exercice.config.TransactionProperties;
+import com.exercice.exercice.model.OrderLine;
+import com.exercice.exercice.model.PaymentStatus;
+import com.exercice.exercice.model.PaymentType;
+import com.exercice.exercice.model.Transaction;
+import com.exercice.exercice.service.TransactionCache;
+import com.exercice.exercice.service.TransactionHistory;
+import com.exercice.exercice.service.TransactionMetrics;
+import com.exercice.exercice.service.TransactionService;
+import com.exercice.exercice.service.TransactionValidator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static Transaction transaction(int orderLines) {
+        List<OrderLine> lines = new ArrayList<>(orderLines);
+        double amount = 0;
+        for (int i = 0; i < orderLines; i++) {
+            OrderLine line = new OrderLine("Product " + i, 1 + i % 4, 10.0f + i % 7);
+            amount += line.getPrice() * line.getQuantity();
+            lines.add(line);
+        }
+        return Transaction.builder()
+                .amount(amount)
+                .paymentType(PaymentType.CREDIT_CARD)
+                .status(PaymentStatus.NEW)
+                .orderLines(lines)
+                .build();
+    }
+
+    static TransactionService service(InMemoryTransactionRepository repository) {
+        TransactionProperties properties = new TransactionProperties();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // Never flushed: once the queue is full, transitions are counted as dropped, which costs the same to the caller
+        return new TransactionService(repository, properties, new TransactionCache(properties),
+                new TransactionMetrics(registry), new TransactionHistory(null, null, properties, registry),
+                new TransactionValidator(properties));
+    }
+}
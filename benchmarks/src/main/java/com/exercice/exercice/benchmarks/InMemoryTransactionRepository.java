@@ -0,0 +1,411 @@
+package com.exercice.exercice.benchmarks;
+
+import com.exercice.exercice.dao.ITransactionRepository;
+import com.exercice.exercice.model.BulkItemResult;
+import com.exercice.exercice.model.PaymentStatus;
+import com.exercice.exercice.model.ProductRevenue;
+import com.exercice.exercice.model.StatsBucket;
+import com.exercice.exercice.model.Transaction;
+import com.exercice.exercice.model.TransactionEvent;
+import com.exercice.exercice.model.TransactionFilter;
+import com.exercice.exercice.model.TransactionTotals;
+import org.bson.types.ObjectId;
+import org.reactivestreams.Publisher;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.repository.query.FluentQuery;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * {@link ITransactionRepository} kept in a sorted map, so that the benchmarks measure the service and web layers
+ * rather than MongoDB. Documents are copied in and out like a real store would. Only the operations used by
+ * {@code TransactionService} are implemented.
+ */
+public class InMemoryTransactionRepository implements ITransactionRepository {
+
+    private final ConcurrentNavigableMap<String, Transaction> documents = new ConcurrentSkipListMap<>();
+    private final ConcurrentNavigableMap<String, Transaction> archive = new ConcurrentSkipListMap<>();
+
+    @Override
+    public <S extends Transaction> Mono<S> save(S entity) {
+        return Mono.fromSupplier(() -> {
+            if (entity.getId() == null) {
+                entity.setId(new ObjectId().toHexString());
+            }
+            entity.setVersion(entity.getVersion() == null ? 0 : entity.getVersion() + 1);
+            documents.put(entity.getId(), copy(entity));
+            return entity;
+        });
+    }
+
+    @Override
+    public <S extends Transaction> Mono<S> insert(S entity) {
+        return save(entity);
+    }
+
+    @Override
+    public Mono<Transaction> findById(String id) {
+        return Mono.fromSupplier(() -> documents.get(id)).map(InMemoryTransactionRepository::copy);
+    }
+
+    @Override
+    public Mono<Boolean> existsById(String id) {
+        return Mono.fromSupplier(() -> documents.containsKey(id));
+    }
+
+    @Override
+    public Flux<Transaction> findAll() {
+        return Flux.fromIterable(documents.values()).map(InMemoryTransactionRepository::copy);
+    }
+
+    @Override
+    public Mono<Long> count() {
+        return Mono.fromSupplier(() -> (long) documents.size());
+    }
+
+    @Override
+    public Mono<Void> deleteById(String id) {
+        return Mono.fromRunnable(() -> documents.remove(id));
+    }
+
+    @Override
+    public Mono<Void> delete(Transaction entity) {
+        return deleteById(entity.getId());
+    }
+
+    @Override
+    public Mono<Void> deleteAll() {
+        return Mono.fromRunnable(documents::clear);
+    }
+
+    @Override
+    public Mono<Transaction> findAndTransition(String transactionId, Transaction updatedTransaction) {
+        return Mono.fromSupplier(() -> {
+            Transaction[] previous = new Transaction[1];
+            documents.computeIfPresent(transactionId, (id, stored) -> {
+                if (updatedTransaction.getVersion() != null && !updatedTransaction.getVersion().equals(stored.getVersion())) {
+                    return stored;
+                }
+                previous[0] = copy(stored);
+                boolean allowed = updatedTransaction.getStatus() == PaymentStatus.CAPTURED
+                        ? stored.getStatus() == PaymentStatus.AUTHORIZED
+                        : stored.getStatus() != PaymentStatus.CAPTURED;
+                // As transactions.validation.amount-matches-order-lines does by default
+                allowed &= updatedTransaction.getAmount() == 0
+                        || stored.getOrderLines() == null || stored.getOrderLines().isEmpty()
+                        || stored.getAmount() == updatedTransaction.getAmount();
+                if (!allowed) {
+                    return stored;
+                }
+                Transaction next = copy(stored);
+                if (updatedTransaction.getAmount() != 0) {
+                    next.setAmount(updatedTransaction.getAmount());
+                }
+                if (updatedTransaction.getPaymentType() != null) {
+                    next.setPaymentType(updatedTransaction.getPaymentType());
+                }
+                if (updatedTransaction.getStatus() != null) {
+                    next.setStatus(updatedTransaction.getStatus());
+                }
+                next.setVersion(stored.getVersion() + 1);
+                return next;
+            });
+            return previous[0];
+        });
+    }
+
+    @Override
+    public Flux<Transaction> findPage(TransactionFilter filter, String after, int limit) {
+        Map<String, Transaction> range = after == null ? documents : documents.tailMap(after, false);
+        return Flux.fromIterable(range.values())
+                .filter(matching(filter))
+                .take(limit)
+                .map(InMemoryTransactionRepository::copy);
+    }
+
+    @Override
+    public Flux<Transaction> streamAll(TransactionFilter filter, int batchSize) {
+        return Flux.fromIterable(documents.values())
+                .filter(matching(filter))
+                .map(InMemoryTransactionRepository::copy);
+    }
+
+    @Override
+    public Flux<Transaction> findSummaryPage(TransactionFilter filter, String after, int limit) {
+        Map<String, Transaction> range = after == null ? documents : documents.tailMap(after, false);
+        return Flux.fromIterable(range.values())
+                .filter(matching(filter))
+                .take(limit)
+                .map(InMemoryTransactionRepository::summary);
+    }
+
+    @Override
+    public Flux<Transaction> streamSummaries(TransactionFilter filter, int batchSize) {
+        return Flux.fromIterable(documents.values())
+                .filter(matching(filter))
+                .map(InMemoryTransactionRepository::summary);
+    }
+
+    @Override
+    public Mono<Transaction> findSummaryById(String transactionId) {
+        return Mono.fromSupplier(() -> documents.get(transactionId)).map(InMemoryTransactionRepository::summary);
+    }
+
+    @Override
+    public Mono<Transaction> findOrderLines(String transactionId) {
+        return Mono.fromSupplier(() -> documents.get(transactionId)).map(InMemoryTransactionRepository::orderLines);
+    }
+
+    @Override
+    public Flux<BulkItemResult> insertUnordered(List<Transaction> transactions) {
+        return Flux.defer(() -> {
+            List<BulkItemResult> results = new ArrayList<>(transactions.size());
+            for (int index = 0; index < transactions.size(); index++) {
+                Transaction transaction = transactions.get(index);
+                if (transaction.getId() == null) {
+                    transaction.setId(new ObjectId().toHexString());
+                }
+                transaction.setVersion(0L);
+                results.add(documents.putIfAbsent(transaction.getId(), copy(transaction)) == null
+                        ? BulkItemResult.created(index, transaction.getId())
+                        : BulkItemResult.failed(index, transaction.getId(), "duplicate key"));
+            }
+            return Flux.fromIterable(results);
+        });
+    }
+
+    @Override
+    public Flux<Transaction> findStatuses(Collection<String> ids) {
+        return Flux.fromIterable(ids)
+                .mapNotNull(documents::get)
+                .map(InMemoryTransactionRepository::status);
+    }
+
+    @Override
+    public Flux<Transaction> streamStatuses(TransactionFilter filter, int batchSize) {
+        return Flux.fromIterable(documents.values())
+                .filter(matching(filter))
+                .map(InMemoryTransactionRepository::status);
+    }
+
+    @Override
+    public Flux<String> captureAuthorized(Collection<String> ids) {
+        return Flux.defer(() -> {
+            List<String> captured = new ArrayList<>();
+            for (String id : ids) {
+                boolean[] changed = new boolean[1];
+                documents.computeIfPresent(id, (key, stored) -> {
+                    if (stored.getStatus() != PaymentStatus.AUTHORIZED) {
+                        return stored;
+                    }
+                    changed[0] = true;
+                    Transaction copy = copy(stored);
+                    copy.setStatus(PaymentStatus.CAPTURED);
+                    copy.setVersion(stored.getVersion() + 1);
+                    return copy;
+                });
+                if (changed[0]) {
+                    captured.add(id);
+                }
+            }
+            return Flux.fromIterable(captured);
+        });
+    }
+
+    @Override
+    public Mono<Boolean> deleteUnchanged(String transactionId, Long version) {
+        return Mono.fromSupplier(() -> {
+            Transaction stored = documents.get(transactionId);
+            return stored != null && stored.getVersion().equals(version) && documents.remove(transactionId, stored);
+        });
+    }
+
+    @Override
+    public Flux<String> archiveCaptured(Instant createdBefore, String after, int limit) {
+        String before = ObjectId.getSmallestWithDate(Date.from(createdBefore)).toHexString();
+        return Flux.defer(() -> Flux.fromIterable((after == null ? documents.headMap(before) : documents.subMap(after, false, before, false)).values()))
+                .filter(transaction -> transaction.getStatus() == PaymentStatus.CAPTURED && ObjectId.isValid(transaction.getId()))
+                .take(limit)
+                .doOnNext(transaction -> {
+                    archive.put(transaction.getId(), transaction);
+                    documents.remove(transaction.getId(), transaction);
+                })
+                .map(Transaction::getId);
+    }
+
+    @Override
+    public Mono<Transaction> findArchived(String transactionId) {
+        return Mono.fromSupplier(() -> archive.get(transactionId)).map(InMemoryTransactionRepository::copy);
+    }
+
+    @Override
+    public Flux<Transaction> findArchivedStatuses(Collection<String> ids) {
+        return Flux.fromIterable(ids)
+                .mapNotNull(archive::get)
+                .map(InMemoryTransactionRepository::status);
+    }
+
+    @Override
+    public Flux<TransactionTotals> aggregateTotals(TransactionFilter filter, StatsBucket bucket) {
+        return Flux.error(new UnsupportedOperationException("aggregations need MongoDB"));
+    }
+
+    @Override
+    public Flux<ProductRevenue> aggregateRevenueByProduct(TransactionFilter filter, StatsBucket bucket) {
+        return Flux.error(new UnsupportedOperationException("aggregations need MongoDB"));
+    }
+
+    @Override
+    public Flux<TransactionEvent> watch(Collection<PaymentStatus> statuses, String resumeAfter) {
+        return Flux.error(new UnsupportedOperationException("change streams need MongoDB"));
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    private static Predicate<Transaction> matching(TransactionFilter filter) {
+        return transaction -> (filter.getStatus() == null || filter.getStatus() == transaction.getStatus())
+                && (filter.getPaymentType() == null || filter.getPaymentType() == transaction.getPaymentType())
+                && (filter.getMinAmount() == null || transaction.getAmount() >= filter.getMinAmount())
+                && (filter.getMaxAmount() == null || transaction.getAmount() <= filter.getMaxAmount());
+    }
+
+    private static Transaction copy(Transaction transaction) {
+        return Transaction.builder()
+                .id(transaction.getId())
+                .amount(transaction.getAmount())
+                .paymentType(transaction.getPaymentType())
+                .status(transaction.getStatus())
+                .orderLines(transaction.getOrderLines() == null ? null : new ArrayList<>(transaction.getOrderLines()))
+                .version(transaction.getVersion())
+                .build();
+    }
+
+    private static Transaction summary(Transaction stored) {
+        Transaction summary = copy(stored);
+        summary.setOrderLines(null);
+        return summary;
+    }
+
+    private static Transaction orderLines(Transaction stored) {
+        return Transaction.builder()
+                .id(stored.getId())
+                .orderLines(stored.getOrderLines() == null ? null : new ArrayList<>(stored.getOrderLines()))
+                .build();
+    }
+
+    private static Transaction status(Transaction stored) {
+        return Transaction.builder().id(stored.getId()).status(stored.getStatus()).build();
+    }
+
+    // Not used by TransactionService
+
+    @Override
+    public <S extends Transaction> Flux<S> saveAll(Iterable<S> entities) {
+        return Flux.fromIterable(entities).concatMap(this::save);
+    }
+
+    @Override
+    public <S extends Transaction> Flux<S> saveAll(Publisher<S> entityStream) {
+        return Flux.from(entityStream).concatMap(this::save);
+    }
+
+    @Override
+    public <S extends Transaction> Flux<S> insert(Iterable<S> entities) {
+        return saveAll(entities);
+    }
+
+    @Override
+    public <S extends Transaction> Flux<S> insert(Publisher<S> entities) {
+        return saveAll(entities);
+    }
+
+    @Override
+    public Mono<Transaction> findById(Publisher<String> id) {
+        return Mono.from(id).flatMap(this::findById);
+    }
+
+    @Override
+    public Mono<Boolean> existsById(Publisher<String> id) {
+        return Mono.from(id).flatMap(this::existsById);
+    }
+
+    @Override
+    public Flux<Transaction> findAll(Sort sort) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Flux<Transaction> findAllById(Iterable<String> ids) {
+        return Flux.fromIterable(ids).concatMap(this::findById);
+    }
+
+    @Override
+    public Flux<Transaction> findAllById(Publisher<String> idStream) {
+        return Flux.from(idStream).concatMap(this::findById);
+    }
+
+    @Override
+    public Mono<Void> deleteById(Publisher<String> id) {
+        return Mono.from(id).flatMap(this::deleteById);
+    }
+
+    @Override
+    public Mono<Void> deleteAllById(Iterable<? extends String> ids) {
+        return Flux.fromIterable(ids).concatMap(this::deleteById).then();
+    }
+
+    @Override
+    public Mono<Void> deleteAll(Iterable<? extends Transaction> entities) {
+        return Flux.fromIterable(entities).concatMap(this::delete).then();
+    }
+
+    @Override
+    public Mono<Void> deleteAll(Publisher<? extends Transaction> entityStream) {
+        return Flux.from(entityStream).concatMap(this::delete).then();
+    }
+
+    @Override
+    public <S extends Transaction> Mono<S> findOne(Example<S> example) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <S extends Transaction> Flux<S> findAll(Example<S> example) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <S extends Transaction> Flux<S> findAll(Example<S> example, Sort sort) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <S extends Transaction> Mono<Long> count(Example<S> example) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <S extends Transaction> Mono<Boolean> exists(Example<S> example) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <S extends Transaction, R, P extends Publisher<R>> P findBy(Example<S> example,
+                                                                     Function<FluentQuery.ReactiveFluentQuery<S>, P> queryFunction) {
+        throw new UnsupportedOperationException();
+    }
+}
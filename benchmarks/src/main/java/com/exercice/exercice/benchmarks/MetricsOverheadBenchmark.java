@@ -0,0 +1,73 @@
+package com.exercice.exercice.benchmarks;
+
+import com.exercice.exercice.model.PaymentStatus;
+import com.exercice.exercice.model.Transaction;
+import com.exercice.exercice.service.TransactionService;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the instrumentation added to every request: recording into a Prometheus timer with percentile
+ * histograms, as done per endpoint and per repository method, and counting a rejected transition.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsOverheadBenchmark {
+
+    private Timer timer;
+    private Mono<String> source;
+    private TransactionService transactionService;
+    private String capturedId;
+    private Transaction update;
+
+    @Setup
+    public void setUp() {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        timer = Timer.builder("benchmark.timer").publishPercentileHistogram().register(registry);
+        source = Mono.just("value");
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+        transactionService = Fixtures.service(repository);
+        Transaction captured = Fixtures.transaction(1);
+        captured.setId("64b7f0c2a1b2c3d4e5f60718");
+        repository.save(captured).block();
+        repository.findAndTransition(captured.getId(), Transaction.builder().status(PaymentStatus.AUTHORIZED).build()).block();
+        repository.findAndTransition(captured.getId(), Transaction.builder().status(PaymentStatus.CAPTURED).build()).block();
+        capturedId = captured.getId();
+        update = Transaction.builder().status(PaymentStatus.AUTHORIZED).build();
+    }
+
+    @Benchmark
+    public String monoBaseline() {
+        // Same operators as monoTimed, so that the difference is the clock reads and the histogram update
+        return Mono.defer(() -> source.doFinally(signal -> {
+        })).block();
+    }
+
+    @Benchmark
+    public String monoTimed() {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return source.doFinally(signal -> timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        }).block();
+    }
+
+    @Benchmark
+    public Throwable rejectedUpdate() {
+        try {
+            transactionService.updateTransaction(capturedId, update).block();
+            return null;
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+}
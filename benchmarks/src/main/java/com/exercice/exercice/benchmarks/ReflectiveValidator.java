@@ -0,0 +1,101 @@
+package com.exercice.exercice.benchmarks;
+
+import com.exercice.exercice.config.TransactionProperties;
+import com.exercice.exercice.model.OrderLine;
+import com.exercice.exercice.model.PaymentType;
+import com.exercice.exercice.model.Transaction;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The same checks as TransactionValidator, made the way a bean validation provider makes them on each request:
+ * property values read through cached reflective getters and boxed, order lines cascaded into one by one, money as
+ * BigDecimal, the rules looked up by payment type, and the violations collected into a set. Hibernate Validator
+ * itself isn't a dependency of the application, this stands in for it.
+ */
+final class ReflectiveValidator {
+
+    private static final Map<Class<?>, Map<String, Method>> GETTERS = new ConcurrentHashMap<>();
+
+    private final TransactionProperties.Validation validation;
+
+    ReflectiveValidator(TransactionProperties transactionProperties) {
+        this.validation = transactionProperties.getValidation();
+    }
+
+    Set<String> validate(Transaction transaction) {
+        Set<String> violations = new HashSet<>();
+        BigDecimal amount = BigDecimal.valueOf((Double) read(transaction, "amount"));
+        PaymentType paymentType = (PaymentType) read(transaction, "paymentType");
+        @SuppressWarnings("unchecked")
+        List<OrderLine> lines = (List<OrderLine>) read(transaction, "orderLines");
+
+        BigDecimal total = BigDecimal.ZERO;
+        if (lines != null) {
+            int index = 0;
+            for (OrderLine line : lines) {
+                Integer quantity = (Integer) read(line, "quantity");
+                Float price = (Float) read(line, "price");
+                if (quantity <= 0) {
+                    violations.add("orderLines[" + index + "].quantity: must be greater than 0");
+                }
+                if (price < 0) {
+                    violations.add("orderLines[" + index + "].price: must be greater than or equal to 0");
+                }
+                total = total.add(new BigDecimal(Float.toString(price)).multiply(BigDecimal.valueOf(quantity)));
+                index++;
+            }
+        }
+        if (amount.scale() > 2 && amount.stripTrailingZeros().scale() > 2) {
+            violations.add("amount: more than two decimals");
+        }
+        if (validation.isAmountMatchesOrderLines() && lines != null && !lines.isEmpty()
+                && amount.setScale(2, RoundingMode.HALF_UP).compareTo(total.setScale(2, RoundingMode.HALF_UP)) != 0) {
+            violations.add("amount: must be the total of the order lines");
+        }
+
+        TransactionProperties.Validation.Rule rule = paymentType == null ? null : validation.getRules().get(paymentType);
+        if (rule != null) {
+            int count = lines == null ? 0 : lines.size();
+            if (rule.isOrderLinesRequired() && count == 0) {
+                violations.add("orderLines: must not be empty");
+            }
+            if (rule.getMaxOrderLines() > 0 && count > rule.getMaxOrderLines()) {
+                violations.add("orderLines: size must be at most " + rule.getMaxOrderLines());
+            }
+            if (rule.getMinAmount() != null && amount.compareTo(rule.getMinAmount()) < 0) {
+                violations.add("amount: must be at least " + rule.getMinAmount());
+            }
+            if (rule.getMaxAmount() != null && amount.compareTo(rule.getMaxAmount()) > 0) {
+                violations.add("amount: must be at most " + rule.getMaxAmount());
+            }
+        }
+        return violations;
+    }
+
+    private static Object read(Object bean, String property) {
+        Method getter = GETTERS.computeIfAbsent(bean.getClass(), type -> new ConcurrentHashMap<>())
+                .computeIfAbsent(property, name -> getter(bean.getClass(), name));
+        try {
+            return getter.invoke(bean);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Method getter(Class<?> type, String property) {
+        String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        try {
+            return type.getMethod("get" + suffix);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
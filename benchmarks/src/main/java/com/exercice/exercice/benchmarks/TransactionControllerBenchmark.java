@@ -0,0 +1,87 @@
+package com.exercice.exercice.benchmarks;
+
+import com.exercice.exercice.config.TransactionProperties;
+import com.exercice.exercice.model.Transaction;
+import com.exercice.exercice.service.IdempotencyService;
+import com.exercice.exercice.service.TransactionService;
+import com.exercice.exercice.web.TransactionController;
+import com.exercice.exercice.web.TransactionExceptionHandler;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests through the WebFlux stack of {@link TransactionController}: routing, argument resolution, JSON codecs
+ * and the service, without a network or a database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransactionControllerBenchmark {
+
+    @Param({"1", "20"})
+    private int orderLines;
+
+    // Transactions on the page read by the listing benchmarks
+    private static final int PAGE = 100;
+
+    private WebTestClient client;
+    private Transaction body;
+    private String existingId;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+        // The idempotency store is only reached by requests carrying an Idempotency-Key, which these don't send
+        IdempotencyService idempotencyService = new IdempotencyService(null, new ObjectMapper(), new TransactionProperties());
+        client = WebTestClient.bindToController(new TransactionController(Fixtures.service(repository), idempotencyService))
+                .controllerAdvice(new TransactionExceptionHandler())
+                .build();
+        body = Fixtures.transaction(orderLines);
+        TransactionService service = Fixtures.service(repository);
+        existingId = service.createTransaction(Fixtures.transaction(orderLines)).block().getId();
+        for (int i = 1; i < PAGE; i++) {
+            service.createTransaction(Fixtures.transaction(orderLines)).block();
+        }
+    }
+
+    @Benchmark
+    public byte[] post() {
+        return client.post().uri("/transactions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody().returnResult().getResponseBody();
+    }
+
+    @Benchmark
+    public byte[] getById() {
+        return client.get().uri("/transactions/{id}", existingId)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().returnResult().getResponseBody();
+    }
+
+    @Benchmark
+    public byte[] list() {
+        return client.get().uri("/transactions?limit={limit}", PAGE)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().returnResult().getResponseBody();
+    }
+
+    @Benchmark
+    public byte[] listSummaries() {
+        return client.get().uri("/transactions?view=summary&limit={limit}", PAGE)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().returnResult().getResponseBody();
+    }
+}
@@ -0,0 +1,46 @@
+package com.exercice.exercice.benchmarks;
+
+import com.exercice.exercice.model.Transaction;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson encoding and decoding of a {@link Transaction}, with the same ObjectMapper defaults as WebFlux.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransactionJsonBenchmark {
+
+    @Param({"0", "10", "100"})
+    private int orderLines;
+
+    private ObjectMapper objectMapper;
+    private Transaction transaction;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        transaction = Fixtures.transaction(orderLines);
+        transaction.setId("64b7f0c2a1b2c3d4e5f60718");
+        json = objectMapper.writeValueAsBytes(transaction);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return objectMapper.writeValueAsBytes(transaction);
+    }
+
+    @Benchmark
+    public Transaction deserialize() throws IOException {
+        return objectMapper.readValue(json, Transaction.class);
+    }
+}
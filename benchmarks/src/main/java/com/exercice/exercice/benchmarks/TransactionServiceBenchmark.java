@@ -0,0 +1,62 @@
+package com.exercice.exercice.benchmarks;
+
+import com.exercice.exercice.model.PaymentStatus;
+import com.exercice.exercice.model.Transaction;
+import com.exercice.exercice.service.TransactionService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The reactive pipelines of {@link TransactionService} against an in-memory repository, so that the score is the
+ * cost of the service itself: guards, cache and operator overhead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransactionServiceBenchmark {
+
+    private InMemoryTransactionRepository repository;
+    private TransactionService transactionService;
+    private String existingId;
+    private Transaction authorize;
+    private Transaction reset;
+    private boolean authorized;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        repository = new InMemoryTransactionRepository();
+        transactionService = Fixtures.service(repository);
+        Transaction existing = transactionService.createTransaction(Fixtures.transaction(3)).block();
+        existingId = existing.getId();
+        // Same amount, the order lines it has add up to it
+        authorize = Transaction.builder().amount(existing.getAmount()).status(PaymentStatus.AUTHORIZED).build();
+        reset = Transaction.builder().amount(existing.getAmount()).status(PaymentStatus.NEW).build();
+    }
+
+    @Benchmark
+    public Transaction create() {
+        return transactionService.createTransaction(Fixtures.transaction(3)).block();
+    }
+
+    @Benchmark
+    public Transaction update() {
+        // Flip between NEW and AUTHORIZED so that every call is an accepted transition
+        authorized = !authorized;
+        return transactionService.updateTransaction(existingId, authorized ? authorize : reset).block();
+    }
+
+    @Benchmark
+    public Transaction getById() {
+        return transactionService.getTransactionById(existingId).block();
+    }
+
+    @Benchmark
+    public Object createThenDelete() {
+        String id = transactionService.createTransaction(Fixtures.transaction(3)).block().getId();
+        return transactionService.deleteTransaction(id).block();
+    }
+}
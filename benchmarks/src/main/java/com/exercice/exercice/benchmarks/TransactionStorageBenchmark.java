@@ -0,0 +1,77 @@
+package com.exercice.exercice.benchmarks;
+
+import com.exercice.exercice.config.CompactFieldNamingStrategy;
+import com.exercice.exercice.config.CompactStorage;
+import com.exercice.exercice.config.MongoStorageConfiguration;
+import com.exercice.exercice.config.TransactionProperties;
+import com.exercice.exercice.model.Transaction;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size and conversion cost of a {@link Transaction} document in each storage layout. The BSON size of the document
+ * is printed when each trial starts. Like the application, documents go through
+ * {@link CompactStorage#beforeSave} and {@link CompactStorage#afterLoad} around the converter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransactionStorageBenchmark {
+
+    @Param({"FULL", "COMPACT"})
+    private TransactionProperties.Storage.Layout layout;
+
+    @Param({"0", "10", "100"})
+    private int orderLines;
+
+    private final DocumentCodec codec = new DocumentCodec();
+    private MappingMongoConverter converter;
+    private Transaction transaction;
+    private RawBsonDocument stored;
+
+    @Setup
+    public void setUp() {
+        MongoCustomConversions conversions = MongoStorageConfiguration.conversions(layout);
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        if (layout == TransactionProperties.Storage.Layout.COMPACT) {
+            mappingContext.setFieldNamingStrategy(new CompactFieldNamingStrategy());
+        }
+        mappingContext.afterPropertiesSet();
+        converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+
+        transaction = Fixtures.transaction(orderLines);
+        transaction.setId("64b7f0c2a1b2c3d4e5f60718");
+        stored = write();
+        System.out.printf("%n%s layout, %d order lines: %d bytes per document%n", layout, orderLines,
+                stored.getByteBuffer().remaining());
+    }
+
+    @Benchmark
+    public RawBsonDocument write() {
+        Document document = new Document();
+        converter.write(transaction, document);
+        CompactStorage.beforeSave(document, layout);
+        return new RawBsonDocument(document, codec);
+    }
+
+    @Benchmark
+    public Transaction read() {
+        Document document = stored.decode(codec);
+        CompactStorage.afterLoad(document, layout);
+        return converter.read(Transaction.class, document);
+    }
+}
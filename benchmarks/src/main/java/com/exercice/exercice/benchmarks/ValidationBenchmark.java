@@ -0,0 +1,56 @@
+package com.exercice.exercice.benchmarks;
+
+import com.exercice.exercice.config.TransactionProperties;
+import com.exercice.exercice.exceptions.TransactionException;
+import com.exercice.exercice.model.PaymentType;
+import com.exercice.exercice.model.Transaction;
+import com.exercice.exercice.service.TransactionValidator;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation of a new transaction, with the payment type rules of application-local.yml: the compiled
+ * {@link TransactionValidator} against the {@link ReflectiveValidator} stand-in for bean validation. Run with
+ * -prof gc to compare the bytes allocated per valid transaction.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidationBenchmark {
+
+    @Param({"1", "20"})
+    private int orderLines;
+
+    private Transaction transaction;
+    private TransactionValidator compiled;
+    private ReflectiveValidator reflective;
+
+    @Setup
+    public void setUp() {
+        TransactionProperties properties = new TransactionProperties();
+        properties.getValidation().getRules().put(PaymentType.CREDIT_CARD,
+                new TransactionProperties.Validation.Rule(new BigDecimal("0.01"), new BigDecimal("10000"), 1000, false));
+        compiled = new TransactionValidator(properties);
+        reflective = new ReflectiveValidator(properties);
+        transaction = Fixtures.transaction(orderLines);
+        if (compiled.checkNew(transaction) != null || !reflective.validate(transaction).isEmpty()) {
+            throw new IllegalStateException("The fixture should be valid");
+        }
+    }
+
+    @Benchmark
+    public TransactionException compiled() {
+        return compiled.checkNew(transaction);
+    }
+
+    @Benchmark
+    public Set<String> reflective() {
+        return reflective.validate(transaction);
+    }
+}
@@ -0,0 +1,127 @@
+package com.exercice.exercice.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies of the requests sent during a run, per operation. Response time is measured from the time the request
+ * was due to be sent, not the time it actually left: when the service, or the load generator, stalls, the requests
+ * that should have been sent meanwhile are charged the wait instead of silently going missing (coordinated
+ * omission). Service time, from the actual send, is kept next to it to show how much the two differ.
+ */
+class LatencyReport {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Map<Workload.Operation, Latencies> operations = new EnumMap<>(Workload.Operation.class);
+    private final Latencies total = new Latencies();
+    private volatile long startedAt;
+    private volatile long endedAt;
+
+    LatencyReport() {
+        for (Workload.Operation operation : Workload.Operation.values()) {
+            operations.put(operation, new Latencies());
+        }
+    }
+
+    void start(long now) {
+        startedAt = now;
+    }
+
+    void end(long now) {
+        endedAt = now;
+    }
+
+    void record(Workload.Operation operation, long dueAt, long sentAt, long doneAt, boolean ok) {
+        operations.get(operation).record(dueAt, sentAt, doneAt, ok);
+        total.record(dueAt, sentAt, doneAt, ok);
+    }
+
+    Latencies total() {
+        return total;
+    }
+
+    double seconds() {
+        return (endedAt - startedAt) / 1e9;
+    }
+
+    void print(double targetRate) {
+        System.out.printf("%nTarget rate %.0f/s over %.1fs, latencies in ms (response time from the due time, service time from the send)%n",
+                targetRate, seconds());
+        System.out.printf("%-8s %8s %7s %9s %8s %8s %8s %8s %12s%n",
+                "", "count", "errors", "ops/s", "p50", "p99", "p99.9", "max", "service p99");
+        operations.forEach((operation, latencies) -> {
+            if (latencies.count() > 0) {
+                print(operation.name(), latencies);
+            }
+        });
+        print("TOTAL", total);
+    }
+
+    private void print(String name, Latencies latencies) {
+        Histogram response = latencies.response;
+        System.out.printf("%-8s %8d %7d %9.1f %8.2f %8.2f %8.2f %8.2f %12.2f%n",
+                name, latencies.count(), latencies.errors.sum(), latencies.count() / seconds(),
+                millis(response.getValueAtPercentile(50)), millis(response.getValueAtPercentile(99)),
+                millis(response.getValueAtPercentile(99.9)), millis(response.getMaxValue()),
+                millis(latencies.service.getValueAtPercentile(99)));
+    }
+
+    Map<String, Object> toMap(double targetRate) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("targetRate", targetRate);
+        report.put("seconds", seconds());
+        Map<String, Object> byOperation = new LinkedHashMap<>();
+        operations.forEach((operation, latencies) -> byOperation.put(operation.name(), latencies.toMap(seconds())));
+        report.put("operations", byOperation);
+        report.put("total", total.toMap(seconds()));
+        return report;
+    }
+
+    static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    static final class Latencies {
+        final Histogram response = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+        final Histogram service = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+        final LongAdder errors = new LongAdder();
+
+        void record(long dueAt, long sentAt, long doneAt, boolean ok) {
+            response.recordValue(doneAt - dueAt);
+            service.recordValue(doneAt - sentAt);
+            if (!ok) {
+                errors.increment();
+            }
+        }
+
+        long count() {
+            return response.getTotalCount();
+        }
+
+        double errorRate() {
+            return count() == 0 ? 0 : errors.sum() / (double) count();
+        }
+
+        Map<String, Object> toMap(double seconds) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", count());
+            map.put("errors", errors.sum());
+            map.put("throughput", count() / seconds);
+            map.put("p50", millis(response.getValueAtPercentile(50)));
+            map.put("p99", millis(response.getValueAtPercentile(99)));
+            map.put("p999", millis(response.getValueAtPercentile(99.9)));
+            map.put("max", millis(response.getMaxValue()));
+            map.put("serviceP50", millis(service.getValueAtPercentile(50)));
+            map.put("serviceP99", millis(service.getValueAtPercentile(99)));
+            map.put("serviceP999", millis(service.getValueAtPercentile(99.9)));
+            return map;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.exercice.exercice.loadtest;
+
+import com.exercice.exercice.UpstreamExerciceApplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.MongodConfig;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Boots the application against an embedded mongod, or the MongoDB given by {@code mongo-uri}, and sends it the
+ * {@link Workload} at a fixed rate. The rate is open loop: requests leave on schedule whether or not the previous ones
+ * were answered, the way independent clients behave, so a slow service builds a backlog instead of slowing the test
+ * down.
+ * <p>
+ * Options are {@code name=value} arguments, see {@link #DEFAULTS}; {@code --name=value} arguments are handed to the
+ * application, e.g. {@code --transactions.rate-limit.enabled=true}. Exits with 1 when a latency or error rate
+ * objective is missed.
+ */
+public final class LoadTest {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+    // The newest server this embed.mongo knows, it has builds for the most platforms
+    private static final Version.Main MONGOD_VERSION = Version.Main.V5_0;
+
+    static {
+        // Requests sent per second, over all operations
+        DEFAULTS.put("rate", "200");
+        // Measured run, after the warm-up
+        DEFAULTS.put("duration", "30s");
+        // Same rate, not measured, so the JIT and the pools settle first
+        DEFAULTS.put("warmup", "10s");
+        // Transactions created before the warm-up
+        DEFAULTS.put("seed", "1000");
+        // Relative weights of the operations
+        DEFAULTS.put("mix", "create:30,get:40,update:15,capture:10,delete:5");
+        // Connections of the HTTP client, requests beyond them wait for one
+        DEFAULTS.put("connections", "200");
+        // Objectives on the response times of all operations together, and on the share of unexpected answers
+        DEFAULTS.put("slo.p50", "20ms");
+        DEFAULTS.put("slo.p99", "100ms");
+        DEFAULTS.put("slo.p999", "250ms");
+        DEFAULTS.put("slo.error-rate", "0.001");
+        // Where to write the results as JSON, none when empty
+        DEFAULTS.put("report", "");
+        // MongoDB to run against instead of the embedded mongod
+        DEFAULTS.put("mongo-uri", "");
+    }
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        Map<String, String> applicationArgs = new LinkedHashMap<>();
+        applicationArgs.put("server.port", "0");
+        applicationArgs.put("spring.data.mongodb.database", "loadtest");
+        // All requests come from one client, the rate limits would turn most of them away
+        applicationArgs.put("transactions.rate-limit.enabled", "false");
+        // The load test starts the mongod itself, on a port it picks
+        applicationArgs.put("spring.autoconfigure.exclude",
+                "org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoConfiguration");
+        applicationArgs.put("logging.level.de.flapdoodle", "WARN");
+        applicationArgs.put("logging.level.org.mongodb.driver", "WARN");
+        parse(args, options, applicationArgs);
+
+        MongodExecutable mongod = null;
+        if (options.get("mongo-uri").isEmpty()) {
+            int port = Network.getFreeServerPort();
+            mongod = MongodStarter.getDefaultInstance().prepare(MongodConfig.builder()
+                    .version(MONGOD_VERSION)
+                    .net(new Net(port, Network.localhostIsIPv6()))
+                    .build());
+            mongod.start();
+            applicationArgs.put("spring.data.mongodb.uri", "mongodb://localhost:" + port);
+        } else {
+            applicationArgs.put("spring.data.mongodb.uri", options.get("mongo-uri"));
+        }
+
+        boolean passed;
+        ConfigurableApplicationContext application = new SpringApplicationBuilder(UpstreamExerciceApplication.class)
+                .profiles("local")
+                .run(commandLine(applicationArgs));
+        try {
+            passed = run(options, application.getEnvironment().getRequiredProperty("local.server.port", Integer.class));
+        } finally {
+            application.close();
+            if (mongod != null) {
+                mongod.stop();
+            }
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean run(Map<String, String> options, int port) throws IOException {
+        double rate = Double.parseDouble(options.get("rate"));
+        Duration duration = DurationStyle.detectAndParse(options.get("duration"));
+        Duration warmup = DurationStyle.detectAndParse(options.get("warmup"));
+
+        ConnectionProvider connections = ConnectionProvider.builder("loadtest")
+                .maxConnections(Integer.parseInt(options.get("connections")))
+                .pendingAcquireMaxCount(-1)
+                .build();
+        WebClient client = WebClient.builder()
+                .baseUrl("http://localhost:" + port)
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connections)))
+                .build();
+        try {
+            Workload workload = new Workload(client, mix(options.get("mix")));
+            workload.seed(Integer.parseInt(options.get("seed"))).block(Duration.ofMinutes(1));
+
+            System.out.printf("Warming up for %ss at %.0f requests/s%n", warmup.getSeconds(), rate);
+            send(workload, new LatencyReport(), rate, warmup);
+            System.out.printf("Measuring for %ss at %.0f requests/s%n", duration.getSeconds(), rate);
+            LatencyReport report = send(workload, new LatencyReport(), rate, duration);
+
+            report.print(rate);
+            List<String> missed = missedObjectives(options, report.total());
+            missed.forEach(objective -> System.out.println("Objective missed: " + objective));
+
+            if (!options.get("report").isEmpty()) {
+                Map<String, Object> json = report.toMap(rate);
+                json.put("mix", options.get("mix"));
+                json.put("objectivesMissed", missed);
+                File file = new File(options.get("report"));
+                file.getAbsoluteFile().getParentFile().mkdirs();
+                new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, json);
+                System.out.println("Results written to " + file);
+            }
+            return missed.isEmpty();
+        } finally {
+            connections.dispose();
+        }
+    }
+
+    /**
+     * Sends one request every 1/rate seconds for that long from a single thread, then waits for the answers still
+     * due. Each request is timed from the moment it was due, so a late send counts against the latency.
+     */
+    private static LatencyReport send(Workload workload, LatencyReport report, double rate, Duration duration) {
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        AtomicInteger pending = new AtomicInteger();
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        report.start(start);
+        for (long due = start; due < end; due += interval) {
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            long dueAt = due;
+            Workload.Request request = workload.request(workload.next());
+            pending.incrementAndGet();
+            long sentAt = System.nanoTime();
+            request.response
+                    .defaultIfEmpty(false)
+                    .onErrorReturn(false)
+                    .subscribe(ok -> {
+                        report.record(request.operation, dueAt, sentAt, System.nanoTime(), ok);
+                        pending.decrementAndGet();
+                    });
+        }
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (pending.get() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        if (pending.get() > 0) {
+            System.out.printf("%d requests still unanswered after a minute, left out of the results%n", pending.get());
+        }
+        report.end(System.nanoTime());
+        return report;
+    }
+
+    private static List<String> missedObjectives(Map<String, String> options, LatencyReport.Latencies total) {
+        List<String> missed = new ArrayList<>();
+        checkPercentile(missed, total, "p50", 50, options.get("slo.p50"));
+        checkPercentile(missed, total, "p99", 99, options.get("slo.p99"));
+        checkPercentile(missed, total, "p99.9", 99.9, options.get("slo.p999"));
+        double maxErrorRate = Double.parseDouble(options.get("slo.error-rate"));
+        if (total.errorRate() > maxErrorRate) {
+            missed.add(String.format(Locale.ROOT, "error rate %.4f above %s", total.errorRate(), maxErrorRate));
+        }
+        return missed;
+    }
+
+    private static void checkPercentile(List<String> missed, LatencyReport.Latencies total, String name, double percentile,
+                                        String objective) {
+        if (objective.isEmpty()) {
+            return;
+        }
+        long limit = DurationStyle.detectAndParse(objective).toNanos();
+        long actual = total.response.getValueAtPercentile(percentile);
+        if (actual > limit) {
+            missed.add(String.format(Locale.ROOT, "%s %.2fms above %s", name, LatencyReport.millis(actual), objective));
+        }
+    }
+
+    private static void parse(String[] args, Map<String, String> options, Map<String, String> applicationArgs) {
+        for (String arg : args) {
+            boolean application = arg.startsWith("--");
+            String option = application ? arg.substring(2) : arg;
+            int equals = option.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Expected name=value or --name=value, got " + arg);
+            }
+            String name = option.substring(0, equals);
+            if (!application && !options.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown option " + name + ", expected one of " + options.keySet());
+            }
+            (application ? applicationArgs : options).put(name, option.substring(equals + 1));
+        }
+    }
+
+    // Command line arguments, as they take precedence over application-local.yml
+    private static String[] commandLine(Map<String, String> applicationArgs) {
+        return applicationArgs.entrySet().stream()
+                .map(arg -> "--" + arg.getKey() + "=" + arg.getValue())
+                .toArray(String[]::new);
+    }
+
+    private static Map<Workload.Operation, Integer> mix(String mix) {
+        Map<Workload.Operation, Integer> weights = new EnumMap<>(Workload.Operation.class);
+        for (String weight : mix.split(",")) {
+            String[] parts = weight.split(":");
+            weights.put(Workload.Operation.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)), Integer.parseInt(parts[1].trim()));
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,180 @@
+package com.exercice.exercice.loadtest;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Mix of requests sent by the load test. Transactions move through the same lifecycle as in production: created
+ * NEW, some authorized by an update, then captured, while others are deleted while still NEW. Each operation takes
+ * its transaction from the pool of the status it needs, and falls back to a creation when that pool is empty.
+ */
+class Workload {
+
+    enum Operation {
+        CREATE, GET, UPDATE, CAPTURE, DELETE
+    }
+
+    // Ids read by GET, overwritten round robin so reads keep hitting a mix of old and recent transactions
+    private static final int KNOWN_IDS = 10_000;
+    // Every transaction has the same amount, so an update never contradicts its order lines
+    private static final String AMOUNT = "120.0";
+
+    private final WebClient client;
+    private final Map<Operation, Integer> weights;
+    private final int totalWeight;
+    private final Queue<String> created = new ConcurrentLinkedQueue<>();
+    private final Queue<String> authorized = new ConcurrentLinkedQueue<>();
+    private final AtomicReferenceArray<String> known = new AtomicReferenceArray<>(KNOWN_IDS);
+    private final AtomicInteger knownCount = new AtomicInteger();
+    // A GET may pick a transaction deleted since, 404 is then the expected answer
+    private final Set<String> deleted = ConcurrentHashMap.newKeySet();
+
+    Workload(WebClient client, Map<Operation, Integer> weights) {
+        this.client = client;
+        this.weights = new EnumMap<>(weights);
+        this.totalWeight = weights.values().stream().mapToInt(Integer::intValue).sum();
+        if (totalWeight <= 0) {
+            throw new IllegalArgumentException("The mix needs at least one operation with a positive weight");
+        }
+    }
+
+    Operation next() {
+        int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Map.Entry<Operation, Integer> weight : weights.entrySet()) {
+            pick -= weight.getValue();
+            if (pick < 0) {
+                return weight.getKey();
+            }
+        }
+        throw new IllegalStateException("Weights changed while picking");
+    }
+
+    /**
+     * Prepares one request of that operation, or a creation when no transaction is in the state it needs.
+     */
+    Request request(Operation operation) {
+        String id;
+        switch (operation) {
+            case GET:
+                id = anyKnown();
+                return id == null ? new Request(Operation.CREATE, create()) : new Request(operation, get(id));
+            case UPDATE:
+                id = created.poll();
+                return id == null ? new Request(Operation.CREATE, create()) : new Request(operation, authorize(id));
+            case CAPTURE:
+                id = authorized.poll();
+                return id == null ? new Request(Operation.CREATE, create()) : new Request(operation, capture(id));
+            case DELETE:
+                id = created.poll();
+                return id == null ? new Request(Operation.CREATE, create()) : new Request(operation, delete(id));
+            default:
+                return new Request(Operation.CREATE, create());
+        }
+    }
+
+    /**
+     * A request not sent yet, sent on subscription. Emits whether the response was the one expected.
+     */
+    static final class Request {
+        final Operation operation;
+        final Mono<Boolean> response;
+
+        private Request(Operation operation, Mono<Boolean> response) {
+            this.operation = operation;
+            this.response = response;
+        }
+    }
+
+    /**
+     * Creates transactions before the run, so that the first seconds aren't only creations.
+     */
+    Mono<Void> seed(int count) {
+        List<String> body = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            body.add(transaction());
+        }
+        return client.post().uri("/transactions/_bulk")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .bodyValue(String.join("\n", body))
+                .retrieve()
+                .bodyToFlux(Map.class)
+                .doOnNext(result -> added((String) result.get("id")))
+                .then();
+    }
+
+    private Mono<Boolean> create() {
+        return client.post().uri("/transactions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(transaction())
+                .exchangeToMono(response -> response.statusCode() == HttpStatus.CREATED
+                        ? response.bodyToMono(Map.class).map(body -> {
+                            added((String) body.get("id"));
+                            return true;
+                        })
+                        : response.releaseBody().thenReturn(false));
+    }
+
+    private Mono<Boolean> get(String id) {
+        return client.get().uri("/transactions/{id}", id)
+                .exchangeToMono(response -> response.releaseBody().thenReturn(response.statusCode() == HttpStatus.OK
+                        || response.statusCode() == HttpStatus.NOT_FOUND && deleted.contains(id)));
+    }
+
+    private Mono<Boolean> authorize(String id) {
+        return client.put().uri("/transactions/{id}", id)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"amount\":" + AMOUNT + ",\"status\":\"AUTHORIZED\"}")
+                .exchangeToMono(response -> response.releaseBody().thenReturn(response.statusCode() == HttpStatus.OK))
+                .doOnNext(ok -> {
+                    if (ok) {
+                        authorized.add(id);
+                    }
+                });
+    }
+
+    private Mono<Boolean> capture(String id) {
+        return client.post().uri("/transactions/_capture")
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .bodyValue(Collections.singletonMap("ids", Collections.singletonList(id)))
+                .exchangeToMono(response -> response.statusCode() == HttpStatus.OK
+                        ? response.bodyToFlux(Map.class).next().map(result -> "CAPTURED".equals(result.get("outcome")))
+                        : response.releaseBody().thenReturn(false));
+    }
+
+    private Mono<Boolean> delete(String id) {
+        deleted.add(id);
+        return client.delete().uri("/transactions/{id}", id)
+                .exchangeToMono(response -> response.releaseBody().thenReturn(response.statusCode() == HttpStatus.NO_CONTENT));
+    }
+
+    private void added(String id) {
+        created.add(id);
+        known.set(knownCount.getAndIncrement() % KNOWN_IDS, id);
+    }
+
+    private String anyKnown() {
+        int count = Math.min(knownCount.get(), KNOWN_IDS);
+        return count == 0 ? null : known.get(ThreadLocalRandom.current().nextInt(count));
+    }
+
+    private static String transaction() {
+        return "{\"amount\":" + AMOUNT + ",\"paymentType\":\"CREDIT_CARD\",\"orderLines\":[{\"productName\":\"bike\",\"quantity\":1,\"price\":" + AMOUNT + "}]}";
+    }
+}
@@ -2,9 +2,11 @@ package com.exercice.exercice;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
 
 @SpringBootApplication()
+@ConfigurationPropertiesScan
 public class UpstreamExerciceApplication {
     public static void main(String[] args) {
         SpringApplication.run(UpstreamExerciceApplication.class, args);
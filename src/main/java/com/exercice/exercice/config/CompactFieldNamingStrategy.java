@@ -0,0 +1,16 @@
+package com.exercice.exercice.config;
+
+import org.springframework.data.mapping.PersistentProperty;
+import org.springframework.data.mapping.model.FieldNamingStrategy;
+
+/**
+ * Stores the properties of Transaction and OrderLine under their compact names, any other entity is left as is.
+ */
+public class CompactFieldNamingStrategy implements FieldNamingStrategy {
+
+    @Override
+    public String getFieldName(PersistentProperty<?> property) {
+        String compact = CompactStorage.fieldName(property.getOwner().getType(), property.getName());
+        return compact == null ? property.getName() : compact;
+    }
+}
@@ -0,0 +1,269 @@
+package com.exercice.exercice.config;
+
+import com.exercice.exercice.model.OrderLine;
+import com.exercice.exercice.model.PaymentStatus;
+import com.exercice.exercice.model.PaymentType;
+import com.exercice.exercice.model.Transaction;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * The compact layout of Transaction documents: one-letter field names, enums stored as their ordinal and money as a
+ * whole number of minor units. Enum constants must therefore only ever be appended.
+ * <p>
+ * The converter maps field names and enums itself. Money goes through {@link #beforeSave} and {@link #afterLoad}
+ * instead, which are much cheaper than property value converters and keep the mapped values plain doubles. Raw
+ * documents are also rewritten from one layout to the other, which is how documents of either layout are read and
+ * how the collection is migrated.
+ */
+public final class CompactStorage {
+
+    public static final int MINOR_UNITS = 100;
+
+    private static final List<Field> ORDER_LINE_FIELDS = Arrays.asList(
+            new Field("productName", "n", UnaryOperator.identity(), UnaryOperator.identity()),
+            new Field("quantity", "q", UnaryOperator.identity(), UnaryOperator.identity()),
+            new Field("price", "p", price -> toMinorUnits(((Number) price).doubleValue()), CompactStorage::fromMinorUnits));
+
+    private static final List<Field> TRANSACTION_FIELDS = Arrays.asList(
+            new Field("amount", "a", amount -> toMinorUnits(((Number) amount).doubleValue()), CompactStorage::fromMinorUnits),
+            new Field("paymentType", "t", type -> PaymentType.valueOf((String) type).ordinal(),
+                    type -> PaymentType.values()[((Number) type).intValue()].name()),
+            new Field("status", "s", status -> PaymentStatus.valueOf((String) status).ordinal(),
+                    status -> PaymentStatus.values()[((Number) status).intValue()].name()),
+            new Field("orderLines", "l", lines -> rewriteAll(lines, ORDER_LINE_FIELDS, TransactionProperties.Storage.Layout.COMPACT),
+                    lines -> rewriteAll(lines, ORDER_LINE_FIELDS, TransactionProperties.Storage.Layout.FULL)),
+            new Field("version", "v", UnaryOperator.identity(), UnaryOperator.identity()));
+
+    private CompactStorage() {
+    }
+
+    /**
+     * @return the compact name of a property of {@link Transaction} or {@link OrderLine}, null for any other.
+     */
+    public static String fieldName(Class<?> owner, String property) {
+        List<Field> fields = owner == Transaction.class ? TRANSACTION_FIELDS
+                : owner == OrderLine.class ? ORDER_LINE_FIELDS
+                : null;
+        if (fields != null) {
+            for (Field field : fields) {
+                if (field.full.equals(property)) {
+                    return field.compact;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the field a property of {@link Transaction} is stored in, in the given layout.
+     */
+    public static String fieldName(String property, TransactionProperties.Storage.Layout layout) {
+        String compact = fieldName(Transaction.class, property);
+        return layout == TransactionProperties.Storage.Layout.COMPACT && compact != null ? compact : property;
+    }
+
+    /**
+     * @return a value of a property of {@link Transaction} as it is stored in the given layout: enums by name or
+     * ordinal, money as a double or in minor units.
+     */
+    public static Object storedValue(String property, Object value, TransactionProperties.Storage.Layout layout) {
+        Object full = value instanceof Enum ? ((Enum<?>) value).name() : value;
+        Field field = find(TRANSACTION_FIELDS, property, false);
+        return layout != TransactionProperties.Storage.Layout.COMPACT || field == null || full == null
+                ? full
+                : field.compacting.apply(full);
+    }
+
+    /**
+     * $addFields stage giving the documents stored in the other layout the fields of {@code layout}, converted, so
+     * that the rest of an aggregation pipeline can be written for one layout while the collection is mixed.
+     */
+    public static Document normalizing(TransactionProperties.Storage.Layout layout) {
+        boolean compact = layout == TransactionProperties.Storage.Layout.COMPACT;
+        Document fields = new Document();
+        for (Field field : TRANSACTION_FIELDS) {
+            String target = compact ? field.compact : field.full;
+            Object converted = converted(field.full, "$" + (compact ? field.full : field.compact), compact);
+            fields.put(target, new Document("$ifNull", Arrays.asList("$" + target, converted)));
+        }
+        return new Document("$addFields", fields);
+    }
+
+    /**
+     * Minor units fit an int for any amount under 21 million, which BSON stores in 4 bytes instead of 8.
+     */
+    public static Object toMinorUnits(double amount) {
+        long units = Math.round(amount * MINOR_UNITS);
+        return units == (int) units ? (Object) (int) units : (Object) units;
+    }
+
+    public static double fromMinorUnits(Object units) {
+        return ((Number) units).doubleValue() / MINOR_UNITS;
+    }
+
+    /**
+     * Rewrites a raw Transaction document in place into the given layout, keeping the order of its fields.
+     *
+     * @return false when the document already was in that layout.
+     */
+    public static boolean rewrite(Document transaction, TransactionProperties.Storage.Layout layout) {
+        Map<String, Object> rewritten = rewritten(transaction, TRANSACTION_FIELDS, layout);
+        if (rewritten == null) {
+            return false;
+        }
+        transaction.clear();
+        transaction.putAll(rewritten);
+        return true;
+    }
+
+    /**
+     * Turns a document the converter just wrote into its stored form.
+     */
+    public static void beforeSave(Document transaction, TransactionProperties.Storage.Layout layout) {
+        if (layout == TransactionProperties.Storage.Layout.COMPACT) {
+            convertMoney(transaction, amount -> toMinorUnits(((Number) amount).doubleValue()));
+        }
+    }
+
+    /**
+     * Turns a stored document, of either layout, into the form the converter reads.
+     */
+    public static void afterLoad(Document transaction, TransactionProperties.Storage.Layout layout) {
+        rewrite(transaction, layout);
+        if (layout == TransactionProperties.Storage.Layout.COMPACT) {
+            convertMoney(transaction, CompactStorage::fromMinorUnits);
+        }
+    }
+
+    /**
+     * The index as it must be declared on the compact layout. It gets a distinct name, so that both layouts stay
+     * indexed side by side while the collection is migrated.
+     */
+    public static IndexDefinition compactIndex(IndexDefinition index) {
+        Document keys = new Document();
+        index.getIndexKeys().forEach((key, direction) -> {
+            String compact = fieldName(Transaction.class, key);
+            keys.put(compact == null ? key : compact, direction);
+        });
+        Document options = new Document(index.getIndexOptions());
+        options.computeIfPresent("name", (key, name) -> name + "_compact");
+        return new IndexDefinition() {
+            @Override
+            public Document getIndexKeys() {
+                return keys;
+            }
+
+            @Override
+            public Document getIndexOptions() {
+                return options;
+            }
+        };
+    }
+
+    // Aggregation expression converting the value of a property at {@code path} from one layout to the other
+    private static Object converted(String property, String path, boolean compacting) {
+        switch (property) {
+            case "amount":
+            case "price":
+                return compacting
+                        ? new Document("$round", Arrays.asList(new Document("$multiply", Arrays.asList(path, MINOR_UNITS)), 0))
+                        : new Document("$divide", Arrays.asList(path, MINOR_UNITS));
+            case "paymentType":
+                return enumConverted(PaymentType.values(), path, compacting);
+            case "status":
+                return enumConverted(PaymentStatus.values(), path, compacting);
+            case "orderLines":
+                Document line = new Document();
+                for (Field field : ORDER_LINE_FIELDS) {
+                    line.put(compacting ? field.compact : field.full,
+                            converted(field.full, "$$line." + (compacting ? field.full : field.compact), compacting));
+                }
+                return new Document("$map", new Document("input", path).append("as", "line").append("in", line));
+            default:
+                return path;
+        }
+    }
+
+    private static Document enumConverted(Enum<?>[] constants, String path, boolean compacting) {
+        List<String> names = new ArrayList<>(constants.length);
+        for (Enum<?> constant : constants) {
+            names.add(constant.name());
+        }
+        return compacting
+                ? new Document("$indexOfArray", Arrays.asList(names, path))
+                : new Document("$arrayElemAt", Arrays.asList(names, path));
+    }
+
+    private static Map<String, Object> rewritten(Map<String, Object> document, List<Field> fields,
+                                                 TransactionProperties.Storage.Layout layout) {
+        boolean compact = layout == TransactionProperties.Storage.Layout.COMPACT;
+        boolean changed = false;
+        Map<String, Object> rewritten = new LinkedHashMap<>(document.size());
+        for (Map.Entry<String, Object> entry : document.entrySet()) {
+            Field field = find(fields, entry.getKey(), !compact);
+            if (field == null) {
+                rewritten.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+            Object value = entry.getValue();
+            if (value != null) {
+                value = compact ? field.compacting.apply(value) : field.expanding.apply(value);
+            }
+            rewritten.put(compact ? field.compact : field.full, value);
+            changed = true;
+        }
+        return changed ? rewritten : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object rewriteAll(Object lines, List<Field> fields, TransactionProperties.Storage.Layout layout) {
+        List<Object> rewritten = new ArrayList<>();
+        for (Object line : (List<Object>) lines) {
+            Map<String, Object> fieldsOfLine = line instanceof Map ? rewritten((Map<String, Object>) line, fields, layout) : null;
+            rewritten.add(fieldsOfLine == null ? line : new Document(fieldsOfLine));
+        }
+        return rewritten;
+    }
+
+    private static void convertMoney(Document transaction, UnaryOperator<Object> conversion) {
+        transaction.computeIfPresent("a", (key, amount) -> conversion.apply(amount));
+        if (transaction.get("l") instanceof List) {
+            for (Object line : (List<?>) transaction.get("l")) {
+                if (line instanceof Document) {
+                    ((Document) line).computeIfPresent("p", (key, price) -> conversion.apply(price));
+                }
+            }
+        }
+    }
+
+    private static Field find(List<Field> fields, String name, boolean compactName) {
+        for (Field field : fields) {
+            if (name.equals(compactName ? field.compact : field.full)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private static final class Field {
+        private final String full;
+        private final String compact;
+        private final UnaryOperator<Object> compacting;
+        private final UnaryOperator<Object> expanding;
+
+        private Field(String full, String compact, UnaryOperator<Object> compacting, UnaryOperator<Object> expanding) {
+            this.full = full;
+            this.compact = compact;
+            this.compacting = compacting;
+            this.expanding = expanding;
+        }
+    }
+}
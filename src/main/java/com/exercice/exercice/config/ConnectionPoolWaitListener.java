@@ -0,0 +1,100 @@
+package com.exercice.exercice.config;
+
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolClosedEvent;
+import com.mongodb.event.ConnectionPoolCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long operations wait for a pooled connection, next to the pool size, checked out connections and
+ * wait queue that Spring Boot already records as mongodb.driver.pool.*.
+ * <p>
+ * The events of this driver don't say which check-out ended, so check-outs are assumed to end in the order they
+ * started: the count, total and mean are exact, a single wait may be attributed to another check-out.
+ */
+public class ConnectionPoolWaitListener implements ConnectionPoolListener {
+
+    private final MeterRegistry registry;
+    private final Map<ServerId, Pool> pools = new ConcurrentHashMap<>();
+
+    public ConnectionPoolWaitListener(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void connectionPoolCreated(ConnectionPoolCreatedEvent event) {
+        ServerId server = event.getServerId();
+        pools.put(server, new Pool(timer(server, "checked_out"), timer(server, "failed")));
+    }
+
+    @Override
+    public void connectionPoolClosed(ConnectionPoolClosedEvent event) {
+        Pool pool = pools.remove(event.getServerId());
+        if (pool != null) {
+            registry.remove(pool.checkedOut);
+            registry.remove(pool.failed);
+        }
+    }
+
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+        Pool pool = pools.get(event.getServerId());
+        if (pool != null) {
+            pool.started.add(System.nanoTime());
+        }
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        Pool pool = pools.get(event.getConnectionId().getServerId());
+        if (pool != null) {
+            pool.ended(pool.checkedOut);
+        }
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        Pool pool = pools.get(event.getServerId());
+        if (pool != null) {
+            pool.ended(pool.failed);
+        }
+    }
+
+    private Timer timer(ServerId server, String outcome) {
+        return Timer.builder("mongodb.driver.pool.wait")
+                .description("Time spent waiting for a connection from the pool")
+                .tag("cluster.id", server.getClusterId().getValue())
+                .tag("server.address", server.getAddress().toString())
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private static final class Pool {
+        private final Queue<Long> started = new ConcurrentLinkedQueue<>();
+        private final Timer checkedOut;
+        private final Timer failed;
+
+        private Pool(Timer checkedOut, Timer failed) {
+            this.checkedOut = checkedOut;
+            this.failed = failed;
+        }
+
+        private void ended(Timer timer) {
+            Long start = started.poll();
+            if (start != null) {
+                timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
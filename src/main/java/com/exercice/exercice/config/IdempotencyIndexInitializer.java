@@ -0,0 +1,35 @@
+package com.exercice.exercice.config;
+
+import com.exercice.exercice.model.IdempotencyRecord;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Component;
+
+/**
+ * Creates the TTL index expiring {@link IdempotencyRecord}s once the application is up, after
+ * {@code transactions.idempotency.ttl}. Like the Transaction indexes, it isn't waited for.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IdempotencyIndexInitializer {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final TransactionProperties transactionProperties;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        Index expiry = new Index().on("createdAt", Sort.Direction.ASC)
+                .named("createdAt_ttl")
+                .expire(transactionProperties.getIdempotency().getTtl());
+        mongoTemplate.indexOps(IdempotencyRecord.class).ensureIndex(expiry)
+                .subscribe(
+                        name -> log.info("Index '{}' is in place on the IdempotencyRecord collection", name),
+                        error -> log.warn("Could not create the IdempotencyRecord TTL index", error));
+    }
+}
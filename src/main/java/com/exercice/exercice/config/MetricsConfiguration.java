@@ -0,0 +1,46 @@
+package com.exercice.exercice.config;
+
+import org.springframework.boot.web.embedded.netty.NettyServerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PostConstruct;
+import java.util.Set;
+
+/**
+ * Runtime metrics next to the ones Spring Boot records by itself (http.server.requests per endpoint and
+ * spring.data.repository.invocations per repository method): Reactor schedulers and the Netty server.
+ */
+@Configuration
+public class MetricsConfiguration {
+
+    private static final String TRANSACTIONS = "/transactions/";
+    // Segments of the routes under /transactions, any other segment there is an id, whatever its format
+    private static final Set<String> LITERALS = Set.of("_bulk", "_capture", "events", "stats", "totals",
+            "revenue-by-product", "orderLines", "history");
+
+    @PostConstruct
+    public void enableSchedulerMetrics() {
+        Schedulers.enableMetrics();
+    }
+
+    @Bean
+    public NettyServerCustomizer nettyMetrics() {
+        // Ids are folded into a template so that the uri tag keeps a small number of values
+        return httpServer -> httpServer.metrics(true, MetricsConfiguration::uriTemplate);
+    }
+
+    public static String uriTemplate(String uri) {
+        int query = uri.indexOf('?');
+        String path = query < 0 ? uri : uri.substring(0, query);
+        if (!path.startsWith(TRANSACTIONS)) {
+            return path;
+        }
+        StringBuilder template = new StringBuilder(path.length()).append(TRANSACTIONS, 0, TRANSACTIONS.length() - 1);
+        for (String segment : path.substring(TRANSACTIONS.length()).split("/", -1)) {
+            template.append('/').append(segment.isEmpty() || LITERALS.contains(segment) ? segment : "{id}");
+        }
+        return template.toString();
+    }
+}
@@ -0,0 +1,129 @@
+package com.exercice.exercice.config;
+
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadPreference;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.mongodb.ReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.util.ClassUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Applies {@code transactions.mongo} to the driver, and provides the templates of the reads that may go to a
+ * secondary: they share the client and the converter of the primary template, only their read preference differs.
+ */
+@Configuration
+public class MongoClientConfiguration {
+
+    public static final String LISTING_TEMPLATE = "listingMongoTemplate";
+    public static final String REPORTING_TEMPLATE = "reportingMongoTemplate";
+
+    // Unordered, so it runs after the customizer applying spring.data.mongodb.uri
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoClientTuning(TransactionProperties transactionProperties, MeterRegistry registry) {
+        TransactionProperties.Mongo mongo = transactionProperties.getMongo();
+        TransactionProperties.Mongo.Pool pool = mongo.getPool();
+        List<MongoCompressor> compressors = mongo.getCompressors().stream()
+                .map(MongoClientConfiguration::compressor)
+                .collect(Collectors.toList());
+        return builder -> builder
+                .applyToConnectionPoolSettings(settings -> settings
+                        .maxSize(pool.getMaxSize())
+                        .minSize(pool.getMinSize())
+                        .maxWaitTime(pool.getMaxWaitTime().toMillis(), TimeUnit.MILLISECONDS)
+                        .maxConnecting(pool.getMaxConnecting())
+                        .addConnectionPoolListener(new ConnectionPoolWaitListener(registry)))
+                .applyToClusterSettings(settings -> settings
+                        .serverSelectionTimeout(mongo.getServerSelectionTimeout().toMillis(), TimeUnit.MILLISECONDS))
+                .applyToSocketSettings(settings -> settings
+                        .connectTimeout((int) mongo.getConnectTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                        .readTimeout((int) mongo.getSocketTimeout().toMillis(), TimeUnit.MILLISECONDS))
+                .compressorList(compressors);
+    }
+
+    // Declaring any template replaces Spring Boot's, this is the same one
+    @Bean
+    @Primary
+    public ReactiveMongoTemplate reactiveMongoTemplate(ReactiveMongoDatabaseFactory databaseFactory, MongoConverter converter) {
+        return new ReactiveMongoTemplate(databaseFactory, converter);
+    }
+
+    @Bean(LISTING_TEMPLATE)
+    public ReactiveMongoTemplate listingMongoTemplate(ReactiveMongoDatabaseFactory databaseFactory, MongoConverter converter,
+                                                      TransactionProperties transactionProperties) {
+        TransactionProperties.Mongo.Reads reads = transactionProperties.getMongo().getReads();
+        return template(databaseFactory, converter, readPreference(reads.getListing(), reads.getMaxStaleness()));
+    }
+
+    @Bean(REPORTING_TEMPLATE)
+    public ReactiveMongoTemplate reportingMongoTemplate(ReactiveMongoDatabaseFactory databaseFactory, MongoConverter converter,
+                                                       TransactionProperties transactionProperties) {
+        TransactionProperties.Mongo.Reads reads = transactionProperties.getMongo().getReads();
+        return template(databaseFactory, converter, readPreference(reads.getReporting(), reads.getMaxStaleness()));
+    }
+
+    private static ReactiveMongoTemplate template(ReactiveMongoDatabaseFactory databaseFactory, MongoConverter converter,
+                                                  ReadPreference readPreference) {
+        ReactiveMongoTemplate template = new ReactiveMongoTemplate(databaseFactory, converter);
+        template.setReadPreference(readPreference);
+        return template;
+    }
+
+    public static ReadPreference readPreference(TransactionProperties.Mongo.Read read, Duration maxStaleness) {
+        if (read == TransactionProperties.Mongo.Read.PRIMARY) {
+            return ReadPreference.primary();
+        }
+        if (maxStaleness == null) {
+            switch (read) {
+                case PRIMARY_PREFERRED:
+                    return ReadPreference.primaryPreferred();
+                case SECONDARY:
+                    return ReadPreference.secondary();
+                case SECONDARY_PREFERRED:
+                    return ReadPreference.secondaryPreferred();
+                default:
+                    return ReadPreference.nearest();
+            }
+        }
+        long staleness = maxStaleness.toMillis();
+        switch (read) {
+            case PRIMARY_PREFERRED:
+                return ReadPreference.primaryPreferred(staleness, TimeUnit.MILLISECONDS);
+            case SECONDARY:
+                return ReadPreference.secondary(staleness, TimeUnit.MILLISECONDS);
+            case SECONDARY_PREFERRED:
+                return ReadPreference.secondaryPreferred(staleness, TimeUnit.MILLISECONDS);
+            default:
+                return ReadPreference.nearest(staleness, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static MongoCompressor compressor(TransactionProperties.Mongo.Compressor compressor) {
+        switch (compressor) {
+            case ZSTD:
+                requireClass("com.github.luben.zstd.Zstd", "zstd", "com.github.luben:zstd-jni");
+                return MongoCompressor.createZstdCompressor();
+            case SNAPPY:
+                requireClass("org.xerial.snappy.Snappy", "snappy", "org.xerial.snappy:snappy-java");
+                return MongoCompressor.createSnappyCompressor();
+            default:
+                return MongoCompressor.createZlibCompressor();
+        }
+    }
+
+    // The driver would only fail once the server picks that compressor, on the first operation
+    private static void requireClass(String className, String compressor, String artifact) {
+        if (!ClassUtils.isPresent(className, MongoClientConfiguration.class.getClassLoader())) {
+            throw new IllegalStateException("The " + compressor + " compressor needs " + artifact + " on the classpath");
+        }
+    }
+}
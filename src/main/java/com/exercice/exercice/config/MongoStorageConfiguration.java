@@ -0,0 +1,137 @@
+package com.exercice.exercice.config;
+
+import com.exercice.exercice.model.IdempotencyRecord;
+import com.exercice.exercice.model.PaymentStatus;
+import com.exercice.exercice.model.PaymentType;
+import com.exercice.exercice.model.Transaction;
+import org.bson.Document;
+import org.springframework.boot.autoconfigure.domain.EntityScanner;
+import org.springframework.boot.autoconfigure.mongo.MongoProperties;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterLoadEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveEvent;
+
+import java.util.Collections;
+
+/**
+ * Maps Transaction and OrderLine to the storage layout picked by {@code transactions.storage.layout}, see
+ * {@link CompactStorage}. Whatever the layout, documents written in the other one are rewritten as they are loaded,
+ * so that switching layouts or migrating the collection never makes a document unreadable.
+ */
+@Configuration
+public class MongoStorageConfiguration {
+
+    @Bean
+    public MongoCustomConversions mongoCustomConversions(TransactionProperties transactionProperties) {
+        return conversions(transactionProperties.getStorage().getLayout());
+    }
+
+    // Same as Spring Boot's own mapping context, with the field names of the compact layout
+    @Bean
+    public MongoMappingContext mongoMappingContext(ApplicationContext applicationContext, MongoProperties mongoProperties,
+                                                   MongoCustomConversions conversions, TransactionProperties transactionProperties)
+            throws ClassNotFoundException {
+        MongoMappingContext context = new MongoMappingContext();
+        context.setAutoIndexCreation(Boolean.TRUE.equals(mongoProperties.isAutoIndexCreation()));
+        context.setInitialEntitySet(new EntityScanner(applicationContext).scan(org.springframework.data.mongodb.core.mapping.Document.class));
+        context.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        if (transactionProperties.getStorage().getLayout() == TransactionProperties.Storage.Layout.COMPACT) {
+            context.setFieldNamingStrategy(new CompactFieldNamingStrategy());
+        }
+        return context;
+    }
+
+    @Bean
+    public AbstractMongoEventListener<Object> storageLayoutListener(TransactionProperties transactionProperties) {
+        TransactionProperties.Storage.Layout layout = transactionProperties.getStorage().getLayout();
+        return new AbstractMongoEventListener<Object>() {
+            @Override
+            public void onBeforeSave(BeforeSaveEvent<Object> event) {
+                Document transaction = transaction(event.getSource().getClass(), event.getDocument());
+                if (transaction != null) {
+                    CompactStorage.beforeSave(transaction, layout);
+                }
+            }
+
+            @Override
+            public void onAfterLoad(AfterLoadEvent<Object> event) {
+                Document transaction = transaction(event.getType(), event.getDocument());
+                if (transaction != null) {
+                    CompactStorage.afterLoad(transaction, layout);
+                }
+            }
+        };
+    }
+
+    private static Document transaction(Class<?> type, Document document) {
+        if (document == null) {
+            return null;
+        }
+        if (type == Transaction.class) {
+            return document;
+        }
+        if (type == IdempotencyRecord.class && document.get("response") instanceof Document) {
+            return (Document) document.get("response");
+        }
+        return null;
+    }
+
+    public static MongoCustomConversions conversions(TransactionProperties.Storage.Layout layout) {
+        if (layout != TransactionProperties.Storage.Layout.COMPACT) {
+            return new MongoCustomConversions(Collections.emptyList());
+        }
+        return MongoCustomConversions.create(adapter -> adapter
+                .registerConverter(OrdinalOfStatus.INSTANCE)
+                .registerConverter(StatusOfOrdinal.INSTANCE)
+                .registerConverter(OrdinalOfType.INSTANCE)
+                .registerConverter(TypeOfOrdinal.INSTANCE));
+    }
+
+    @WritingConverter
+    enum OrdinalOfStatus implements Converter<PaymentStatus, Integer> {
+        INSTANCE;
+
+        @Override
+        public Integer convert(PaymentStatus status) {
+            return status.ordinal();
+        }
+    }
+
+    @ReadingConverter
+    enum StatusOfOrdinal implements Converter<Integer, PaymentStatus> {
+        INSTANCE;
+
+        @Override
+        public PaymentStatus convert(Integer ordinal) {
+            return PaymentStatus.values()[ordinal];
+        }
+    }
+
+    @WritingConverter
+    enum OrdinalOfType implements Converter<PaymentType, Integer> {
+        INSTANCE;
+
+        @Override
+        public Integer convert(PaymentType type) {
+            return type.ordinal();
+        }
+    }
+
+    @ReadingConverter
+    enum TypeOfOrdinal implements Converter<Integer, PaymentType> {
+        INSTANCE;
+
+        @Override
+        public PaymentType convert(Integer ordinal) {
+            return PaymentType.values()[ordinal];
+        }
+    }
+}
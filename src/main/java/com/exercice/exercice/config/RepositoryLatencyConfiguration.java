@@ -0,0 +1,31 @@
+package com.exercice.exercice.config;
+
+import com.exercice.exercice.web.AdaptiveConcurrencyLimit;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+
+/**
+ * Feeds the latency of every repository call to the {@link AdaptiveConcurrencyLimit}, the same way Spring Boot feeds
+ * it to spring.data.repository.invocations.
+ */
+@Configuration
+public class RepositoryLatencyConfiguration {
+
+    // Static, so that registering the post processor doesn't create this configuration before the others
+    @Bean
+    public static BeanPostProcessor repositoryLatencyListener(ObjectProvider<AdaptiveConcurrencyLimit> concurrencyLimit) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof RepositoryFactoryBeanSupport) {
+                    ((RepositoryFactoryBeanSupport<?, ?, ?>) bean).addRepositoryFactoryCustomizer(
+                            factory -> factory.addInvocationListener(concurrencyLimit.getObject()));
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,84 @@
+package com.exercice.exercice.config;
+
+import com.exercice.exercice.model.Transaction;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.index.ReactiveIndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Creates the indexes declared on {@link Transaction} once the application is up. createIndexes is a no-op for an
+ * index that already exists with the same definition, and the subscription isn't waited for, so a long build on a
+ * large collection never holds up startup.
+ * <p>
+ * While the collection is mixed, the indexes of the other layout are created as well, so that the documents not
+ * migrated yet are still found through an index; they are dropped at the first start that finds the collection in
+ * the configured layout only.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TransactionIndexInitializer {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final MongoMappingContext mappingContext;
+    private final TransactionProperties transactionProperties;
+    private final TransactionLayoutMigration layoutMigration;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        TransactionProperties.Storage.Layout layout = transactionProperties.getStorage().getLayout();
+        boolean mixed = layoutMigration.isMixed();
+        List<IndexDefinition> indexes = new ArrayList<>(indexes(layout));
+        if (mixed) {
+            indexes.addAll(indexes(layout.other()));
+        }
+        ReactiveIndexOperations indexOps = mongoTemplate.indexOps(Transaction.class);
+        Flux.fromIterable(indexes)
+                .concatMap(indexOps::ensureIndex)
+                .subscribe(
+                        name -> log.info("Index '{}' is in place on the Transaction collection", name),
+                        error -> log.warn("Could not create the Transaction indexes", error));
+        if (!mixed) {
+            dropIndexes(indexOps, layout.other())
+                    .subscribe(
+                            name -> log.info("Index '{}' of the {} layout dropped from the Transaction collection", name, layout.other()),
+                            error -> log.warn("Could not drop the Transaction indexes of the {} layout", layout.other(), error));
+        }
+    }
+
+    private List<IndexDefinition> indexes(TransactionProperties.Storage.Layout layout) {
+        IndexResolver resolver = new MongoPersistentEntityIndexResolver(mappingContext);
+        List<IndexDefinition> indexes = new ArrayList<>();
+        for (IndexDefinition index : resolver.resolveIndexFor(Transaction.class)) {
+            // Compound index definitions name the properties, not the fields they are stored in
+            indexes.add(layout == TransactionProperties.Storage.Layout.COMPACT ? CompactStorage.compactIndex(index) : index);
+        }
+        return indexes;
+    }
+
+    private Flux<String> dropIndexes(ReactiveIndexOperations indexOps, TransactionProperties.Storage.Layout layout) {
+        Set<String> names = indexes(layout).stream()
+                .map(index -> index.getIndexOptions().getString("name"))
+                .collect(Collectors.toSet());
+        // Only the ones still there, dropping a missing index fails
+        return indexOps.getIndexInfo()
+                .map(IndexInfo::getName)
+                .filter(names::contains)
+                .concatMap(name -> indexOps.dropIndex(name).thenReturn(name));
+    }
+}
@@ -0,0 +1,190 @@
+package com.exercice.exercice.config;
+
+import com.exercice.exercice.model.Transaction;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites the Transaction collection into the configured storage layout while the application keeps serving:
+ * documents are read in _id order, a batch at a time with a pause in between, and each one is replaced only if it
+ * is still exactly as it was read, so a concurrent update is never lost. Switching the layout back and running it
+ * again reverts the collection.
+ * <p>
+ * It also tells whether the collection is mixed, i.e. may hold documents in the other layout than the configured
+ * one. The repository matches both layouts while it is, so a document is never missed nor written in the wrong
+ * layout, at the cost of an $or in filtered queries. A marker naming the layout every document is in is written
+ * once that is known, and read before the application takes its first request, so that a start on a uniform
+ * collection doesn't query both layouts nor look through the collection again. All instances are expected to run
+ * the same layout: one still on the old layout isn't told the collection became mixed.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TransactionLayoutMigration {
+
+    static final String MARKER_COLLECTION = "TransactionLayout";
+    private static final String MARKER_ID = "Transaction";
+    // Every Transaction document has an amount, the name of that field tells the layout of the document
+    private static final String AMOUNT = "amount";
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final TransactionProperties transactionProperties;
+    // Until checked, documents of either layout may be there
+    private volatile boolean mixed = true;
+
+    public boolean isMixed() {
+        return mixed;
+    }
+
+    /**
+     * Starts from the marker, waiting for it at most the server selection timeout: without one naming the configured
+     * layout, the collection stays mixed until {@link #checkLayout()} tells otherwise.
+     */
+    @PostConstruct
+    public void readMarker() {
+        try {
+            mixed = !Boolean.TRUE.equals(marked(transactionProperties.getStorage().getLayout())
+                    .block(transactionProperties.getMongo().getServerSelectionTimeout()));
+        } catch (RuntimeException e) {
+            log.warn("Could not read the layout marker, both layouts are matched until the layout is checked", e);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateOnStartup() {
+        TransactionProperties.Storage storage = transactionProperties.getStorage();
+        checkLayout()
+                .filter(uniform -> !uniform)
+                .doOnNext(stillMixed -> {
+                    if (!storage.isMigrate()) {
+                        log.warn("Some transactions are still in the {} layout, both layouts are matched until transactions.storage.migrate rewrites them",
+                                storage.getLayout().other());
+                    }
+                })
+                .filter(stillMixed -> storage.isMigrate())
+                .flatMap(stillMixed -> migrate(storage.getLayout()))
+                .subscribe(
+                        rewritten -> log.info("{} transactions rewritten into the {} layout", rewritten, storage.getLayout()),
+                        error -> log.warn("Migration to the {} layout stopped, running it again resumes it", storage.getLayout(), error));
+    }
+
+    /**
+     * Looks up whether every document is in the configured layout: from the marker when it says so, otherwise by
+     * looking for a document in the other layout, and records the answer in the marker when there is none.
+     *
+     * @return whether every document is in the configured layout.
+     */
+    public Mono<Boolean> checkLayout() {
+        TransactionProperties.Storage.Layout layout = transactionProperties.getStorage().getLayout();
+        return marked(layout)
+                .filter(Boolean::booleanValue)
+                .switchIfEmpty(Mono.defer(() -> anyIn(layout.other())
+                        .flatMap(found -> found ? Mono.just(false) : markUniform(layout).thenReturn(true))))
+                .doOnNext(uniform -> mixed = !uniform);
+    }
+
+    /**
+     * @return how many documents were rewritten, documents already in that layout are left untouched.
+     */
+    public Mono<Long> migrate(TransactionProperties.Storage.Layout layout) {
+        TransactionProperties.Storage storage = transactionProperties.getStorage();
+        int batchSize = storage.getMigrationBatchSize();
+        // Only documents still in the other layout are read
+        Document leftOver = inLayout(layout.other());
+        mixed = true;
+        return mongoTemplate.remove(Query.query(Criteria.where("_id").is(MARKER_ID)), MARKER_COLLECTION)
+                .then(mongoTemplate.getCollection(mongoTemplate.getCollectionName(Transaction.class)))
+                .flatMap(collection -> pass(collection, leftOver, batchSize, layout)
+                        // Documents updated while their batch was rewritten were skipped, another pass takes them
+                        .expand(rewritten -> rewritten == 0
+                                ? Mono.empty()
+                                : anyIn(layout.other()).filter(Boolean::booleanValue)
+                                .flatMap(left -> pass(collection, leftOver, batchSize, layout)))
+                        .reduce(0L, Long::sum))
+                .flatMap(rewritten -> anyIn(layout.other()).flatMap(left -> {
+                    if (left) {
+                        log.warn("Some transactions are still in the {} layout, running the migration again rewrites them", layout.other());
+                        return Mono.just(rewritten);
+                    }
+                    return markUniform(layout)
+                            .doOnSuccess(marked -> mixed = layout != storage.getLayout())
+                            .thenReturn(rewritten);
+                }));
+    }
+
+    private Mono<Long> pass(MongoCollection<Document> collection, Document filter, int batchSize,
+                            TransactionProperties.Storage.Layout layout) {
+        TransactionProperties.Storage storage = transactionProperties.getStorage();
+        return migrateBatch(collection, filter, null, batchSize, layout)
+                .expand(batch -> batch.getT1().size() < batchSize
+                        ? Mono.empty()
+                        : migrateBatch(collection, filter, last(batch.getT1()), batchSize, layout)
+                        .delaySubscription(storage.getMigrationPause()))
+                .map(Tuple2::getT2)
+                .reduce(0L, Long::sum);
+    }
+
+    private Mono<Tuple2<List<Document>, Long>> migrateBatch(MongoCollection<Document> collection, Document filter, Object after,
+                                                            int batchSize, TransactionProperties.Storage.Layout layout) {
+        Document page = after == null ? filter : new Document(filter).append("_id", new Document("$gt", after));
+        return Flux.from(collection.find(page).sort(new Document("_id", 1)).limit(batchSize))
+                .collectList()
+                .flatMap(documents -> {
+                    List<WriteModel<Document>> replacements = new ArrayList<>();
+                    for (Document original : documents) {
+                        Document rewritten = new Document(original);
+                        if (CompactStorage.rewrite(rewritten, layout)) {
+                            // The whole original document is the filter: one changed since it was read is skipped
+                            replacements.add(new ReplaceOneModel<>(original, rewritten));
+                        }
+                    }
+                    if (replacements.isEmpty()) {
+                        return Mono.just(Tuples.of(documents, 0L));
+                    }
+                    return Mono.from(collection.bulkWrite(replacements, new BulkWriteOptions().ordered(false)))
+                            .map(result -> Tuples.of(documents, (long) result.getModifiedCount()));
+                });
+    }
+
+    private Mono<Boolean> anyIn(TransactionProperties.Storage.Layout layout) {
+        return mongoTemplate.exists(new BasicQuery(inLayout(layout)), mongoTemplate.getCollectionName(Transaction.class));
+    }
+
+    private Mono<Boolean> marked(TransactionProperties.Storage.Layout layout) {
+        return mongoTemplate.findById(MARKER_ID, Document.class, MARKER_COLLECTION)
+                .map(marker -> layout.name().equals(marker.getString("layout")))
+                .defaultIfEmpty(false);
+    }
+
+    private Mono<Document> markUniform(TransactionProperties.Storage.Layout layout) {
+        return mongoTemplate.save(new Document("_id", MARKER_ID).append("layout", layout.name()), MARKER_COLLECTION);
+    }
+
+    private static Document inLayout(TransactionProperties.Storage.Layout layout) {
+        return new Document(CompactStorage.fieldName(AMOUNT, layout), new Document("$exists", true));
+    }
+
+    private static Object last(List<Document> documents) {
+        return documents.get(documents.size() - 1).get("_id");
+    }
+}
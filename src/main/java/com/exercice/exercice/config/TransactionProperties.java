@@ -0,0 +1,285 @@
+package com.exercice.exercice.config;
+
+import com.exercice.exercice.model.PaymentType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Getter
+@Setter
+@ConfigurationProperties("transactions")
+public class TransactionProperties {
+
+    private final Pagination pagination = new Pagination();
+    private final Bulk bulk = new Bulk();
+    private final Cache cache = new Cache();
+    private final Idempotency idempotency = new Idempotency();
+    private final Events events = new Events();
+    private final Storage storage = new Storage();
+    private final Conflicts conflicts = new Conflicts();
+    private final RateLimit rateLimit = new RateLimit();
+    private final Concurrency concurrency = new Concurrency();
+    private final History history = new History();
+    private final Mongo mongo = new Mongo();
+    private final Validation validation = new Validation();
+    private final Archive archive = new Archive();
+
+    @Getter
+    @Setter
+    public static class Pagination {
+        // Page size used when the client doesn't send a limit
+        private int defaultLimit = 100;
+        // Upper bound for the limit a client may ask for
+        private int maxLimit = 1000;
+        // Documents fetched per cursor batch when streaming as NDJSON
+        private int streamBatchSize = 256;
+    }
+
+    @Getter
+    @Setter
+    public static class Bulk {
+        // Documents sent to MongoDB in one unordered insertMany
+        private int chunkSize = 500;
+        // Chunks being written at the same time
+        private int concurrency = 2;
+    }
+
+    @Getter
+    @Setter
+    public static class Cache {
+        // Transactions kept in memory, captured ones included
+        private long maximumSize = 10_000;
+        // How long a transaction that can still change is served from memory, captured ones never expire
+        private Duration mutableTtl = Duration.ofSeconds(5);
+    }
+
+    @Getter
+    @Setter
+    public static class Idempotency {
+        // Responses kept in memory for replays, the others are read back from MongoDB
+        private long maximumSize = 10_000;
+        // How long a key is honoured, both in memory and in MongoDB
+        private Duration ttl = Duration.ofHours(24);
+    }
+
+    @Getter
+    @Setter
+    public static class Events {
+        // Events held for a subscriber that reads slower than changes happen
+        private int bufferSize = 256;
+        // What happens once that buffer is full
+        private Overflow overflow = Overflow.DISCONNECT;
+
+        public enum Overflow {
+            // Drop the oldest buffered events, the subscriber misses them
+            DROP,
+            // Close the stream, the subscriber reconnects with Last-Event-ID and catches up without a gap
+            DISCONNECT
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class Storage {
+        // Layout new and updated documents are written in, documents of either layout are read
+        private Layout layout = Layout.FULL;
+        // Rewrite the existing documents into that layout once the application is up
+        private boolean migrate = false;
+        // Documents rewritten per bulk write while migrating
+        private int migrationBatchSize = 500;
+        // Pause between two migration batches, to leave room for the regular traffic
+        private Duration migrationPause = Duration.ofMillis(50);
+
+        public enum Layout {
+            // Field names and enum names as in the model, money as a double
+            FULL,
+            // One-letter field names, enum ordinals and money in minor units, see CompactStorage
+            COMPACT;
+
+            public Layout other() {
+                return this == FULL ? COMPACT : FULL;
+            }
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class Conflicts {
+        // Retries of a write that lost a race against a concurrent one, before answering 409
+        private int maxRetries = 3;
+        // Backoff before the first retry, doubled at each one up to maxBackoff
+        private Duration minBackoff = Duration.ofMillis(5);
+        private Duration maxBackoff = Duration.ofMillis(100);
+        // Share of each backoff that is randomized, so that the writers which collided don't collide again
+        private double jitter = 0.5;
+    }
+
+    @Getter
+    @Setter
+    public static class RateLimit {
+        // Off unless the deployment sizes the buckets for its own clients
+        private boolean enabled = false;
+        // Clients are told apart by their remote address, or by this header on requests from a trusted proxy
+        private String clientHeader = "X-Client-Id";
+        // Addresses of the proxies whose client header is believed, any other caller could pick its own
+        private List<String> trustedProxies = new ArrayList<>();
+        // Bucket of each client, across all endpoints
+        private Bucket perClient = new Bucket(200, 100);
+        // Buckets shared by all clients, per endpoint such as "POST /transactions" or "GET /transactions/{id}"
+        private Map<String, Bucket> endpoints = new LinkedHashMap<>();
+        // Clients tracked at once, the least recently seen are forgotten first
+        private long maximumClients = 100_000;
+
+        @Getter
+        @Setter
+        @NoArgsConstructor
+        @AllArgsConstructor
+        public static class Bucket {
+            // Requests accepted in a burst
+            private int capacity;
+            // Requests accepted per second once the burst is spent
+            private double refillPerSecond;
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class Concurrency {
+        private boolean enabled = true;
+        // Requests in flight allowed until repository latency has been observed
+        private int initialLimit = 100;
+        private int minLimit = 10;
+        private int maxLimit = 1000;
+        // How far recent repository latency may rise above its long-term average before the limit shrinks
+        private double tolerance = 1.5;
+        // Weight of each new estimate in the limit, lower is steadier
+        private double smoothing = 0.2;
+        // Repository latency is averaged over this window before the limit is updated
+        private Duration window = Duration.ofMillis(100);
+        // Retry-After of the 503 sent when the limit is reached
+        private Duration retryAfter = Duration.ofSeconds(1);
+    }
+
+    @Getter
+    @Setter
+    public static class History {
+        // Transitions waiting to be written, beyond that new ones are dropped rather than holding up the request
+        private int queueCapacity = 10_000;
+        // Transitions written in one insertMany, a full batch is written right away
+        private int batchSize = 500;
+        // Longest a transition waits in the queue when fewer than a batch are waiting
+        private Duration flushInterval = Duration.ofSeconds(1);
+    }
+
+    /**
+     * Driver settings, applied over spring.data.mongodb.uri: the same options given in the URI are ignored.
+     */
+    @Getter
+    @Setter
+    public static class Mongo {
+        private final Pool pool = new Pool();
+        // Longest wait for a server the operation can run on, e.g. while the primary is being elected
+        private Duration serverSelectionTimeout = Duration.ofSeconds(5);
+        private Duration connectTimeout = Duration.ofSeconds(10);
+        // Longest wait for the reply to an operation, 0 waits for ever
+        private Duration socketTimeout = Duration.ofSeconds(30);
+        // Wire compression offered to the server, by preference. SNAPPY needs org.xerial.snappy:snappy-java
+        private List<Compressor> compressors = new ArrayList<>(Collections.singletonList(Compressor.ZSTD));
+        private final Reads reads = new Reads();
+
+        public enum Compressor {
+            ZSTD, SNAPPY, ZLIB
+        }
+
+        @Getter
+        @Setter
+        public static class Pool {
+            // Connections open at most, per server
+            private int maxSize = 100;
+            // Connections kept open even when idle, per server
+            private int minSize = 0;
+            // Longest wait for a connection once maxSize are in use, before the operation fails
+            private Duration maxWaitTime = Duration.ofSeconds(2);
+            // Connections being opened at the same time, per server
+            private int maxConnecting = 2;
+        }
+
+        /**
+         * Where the reads that can do with slightly stale data go, every other operation reads from the primary.
+         */
+        @Getter
+        @Setter
+        public static class Reads {
+            // Pages of transactions and the NDJSON export
+            private Read listing = Read.SECONDARY_PREFERRED;
+            // Stats aggregations
+            private Read reporting = Read.SECONDARY_PREFERRED;
+            // How far a secondary may lag behind the primary and still serve these reads, at least 90s, unset for no limit
+            private Duration maxStaleness;
+        }
+
+        public enum Read {
+            PRIMARY, PRIMARY_PREFERRED, SECONDARY, SECONDARY_PREFERRED, NEAREST
+        }
+    }
+
+    /**
+     * Checks of new transactions, and of the amount and payment type of updates. Amounts are compared to the cent.
+     */
+    @Getter
+    @Setter
+    public static class Validation {
+        // Refuse a transaction whose amount isn't the sum of price * quantity of its order lines. One created with
+        // an amount of 0 gets that sum instead
+        private boolean amountMatchesOrderLines = true;
+        // Limits of each payment type, a type without any is only checked against its order lines
+        private Map<PaymentType, Rule> rules = new LinkedHashMap<>();
+
+        @Getter
+        @Setter
+        @NoArgsConstructor
+        @AllArgsConstructor
+        public static class Rule {
+            // Smallest amount accepted, unset for no limit
+            private BigDecimal minAmount;
+            // Largest amount accepted, unset for no limit
+            private BigDecimal maxAmount;
+            // Most order lines in one transaction, 0 for no limit
+            private int maxOrderLines;
+            // Refuse a new transaction without order lines
+            private boolean orderLinesRequired;
+        }
+    }
+
+    /**
+     * Moves captured transactions, which never change again, out of the Transaction collection once they are old
+     * enough, so that its indexes and working set only hold the transactions still in use.
+     */
+    @Getter
+    @Setter
+    public static class Archive {
+        // Move old captured transactions to the archive collection, and look up there the ids missing from the
+        // Transaction collection. Turning it off leaves the transactions already archived out of reach
+        private boolean enabled = false;
+        // Name of the archive collection
+        private String collection = "TransactionArchive";
+        // Captured transactions created longer ago than this are moved, the creation time is the one of their ObjectId
+        private Duration age = Duration.ofDays(30);
+        // Transactions moved per batch: one find, one bulk write into the archive, one deleteMany
+        private int batchSize = 500;
+        // Pause between two batches, to leave room for the regular traffic
+        private Duration pause = Duration.ofMillis(100);
+        // Time between two runs, the first one starts once the application is up
+        private Duration interval = Duration.ofHours(1);
+    }
+}
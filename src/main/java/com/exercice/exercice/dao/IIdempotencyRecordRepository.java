@@ -0,0 +1,10 @@
+package com.exercice.exercice.dao;
+
+
+import com.exercice.exercice.model.IdempotencyRecord;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface IIdempotencyRecordRepository extends ReactiveMongoRepository<IdempotencyRecord, String> {
+}
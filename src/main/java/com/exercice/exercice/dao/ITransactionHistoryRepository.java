@@ -0,0 +1,13 @@
+package com.exercice.exercice.dao;
+
+
+import com.exercice.exercice.model.TransactionTransition;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+
+@Repository
+public interface ITransactionHistoryRepository extends ReactiveMongoRepository<TransactionTransition, String> {
+
+    Flux<TransactionTransition> findByTransactionIdOrderByAtAsc(String transactionId);
+}
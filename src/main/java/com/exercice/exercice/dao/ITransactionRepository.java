@@ -9,5 +9,5 @@ import reactor.core.publisher.Flux;
 import java.util.List;
 
 @Repository
-public interface ITransactionRepository extends ReactiveMongoRepository<Transaction, String> {
+public interface ITransactionRepository extends ReactiveMongoRepository<Transaction, String>, ITransactionRepositoryCustom {
 }
@@ -0,0 +1,140 @@
+package com.exercice.exercice.dao;
+
+import com.exercice.exercice.model.BulkItemResult;
+import com.exercice.exercice.model.PaymentStatus;
+import com.exercice.exercice.model.ProductRevenue;
+import com.exercice.exercice.model.StatsBucket;
+import com.exercice.exercice.model.Transaction;
+import com.exercice.exercice.model.TransactionEvent;
+import com.exercice.exercice.model.TransactionFilter;
+import com.exercice.exercice.model.TransactionTotals;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+public interface ITransactionRepositoryCustom {
+
+    /**
+     * Applies the amount, payment type and status of {@code updatedTransaction} to the stored transaction in a single
+     * conditional findAndModify. The fields are only written, and the version incremented, when the stored status
+     * allows the requested transition. When {@code updatedTransaction} carries a version, nothing is written unless
+     * the stored transaction still has that version.
+     *
+     * @return the transaction as it was <b>before</b> the call, so the caller can tell why a transition was refused,
+     * or an empty Mono if no transaction has the given id (and version).
+     */
+    Mono<Transaction> findAndTransition(String transactionId, Transaction updatedTransaction);
+
+    /**
+     * Keyset pagination on {@code _id}: returns at most {@code limit} transactions matching the filter whose id is
+     * greater than {@code after} (or from the start when {@code after} is null), in id order.
+     */
+    Flux<Transaction> findPage(TransactionFilter filter, String after, int limit);
+
+    /**
+     * Streams every transaction matching the filter in id order, fetching {@code batchSize} documents per cursor
+     * batch so that memory use follows the subscriber's demand instead of the collection size.
+     */
+    Flux<Transaction> streamAll(TransactionFilter filter, int batchSize);
+
+    /**
+     * Same page as {@link #findPage}, with the order lines left on the server.
+     */
+    Flux<Transaction> findSummaryPage(TransactionFilter filter, String after, int limit);
+
+    /**
+     * Same stream as {@link #streamAll}, with the order lines left on the server.
+     */
+    Flux<Transaction> streamSummaries(TransactionFilter filter, int batchSize);
+
+    /**
+     * Reads the transaction with the given id without its order lines.
+     */
+    Mono<Transaction> findSummaryById(String transactionId);
+
+    /**
+     * Reads only the id and order lines of the transaction with the given id.
+     */
+    Mono<Transaction> findOrderLines(String transactionId);
+
+    /**
+     * Inserts the transactions with one unordered insertMany, so a failing document doesn't stop the others.
+     * Transactions without an id are given one up front.
+     *
+     * @return one result per transaction, in the order of the list, indexed from 0 within the list.
+     */
+    Flux<BulkItemResult> insertUnordered(List<Transaction> transactions);
+
+    /**
+     * Reads only the id and status of the transactions with the given ids; ids matching nothing are left out.
+     */
+    Flux<Transaction> findStatuses(Collection<String> ids);
+
+    /**
+     * Streams the id and status of every transaction matching the filter in id order, {@code batchSize} per cursor
+     * batch.
+     */
+    Flux<Transaction> streamStatuses(TransactionFilter filter, int batchSize);
+
+    /**
+     * Moves the transactions with the given ids that are still AUTHORIZED to CAPTURED, incrementing their version,
+     * with one conditional update per id, all of them in flight at once.
+     *
+     * @return the ids this call captured, in no particular order; one captured by another request first isn't part
+     * of them.
+     */
+    Flux<String> captureAuthorized(Collection<String> ids);
+
+    /**
+     * Deletes the transaction only if it still has the given version, a null version standing for a transaction
+     * written before versioning.
+     *
+     * @return whether it was deleted.
+     */
+    Mono<Boolean> deleteUnchanged(String transactionId, Long version);
+
+    /**
+     * Moves at most {@code limit} CAPTURED transactions created before {@code createdBefore}, with an id greater
+     * than {@code after} (or from the start when it is null), to the archive collection: they are written there
+     * first and only then deleted from the Transaction collection, so a transaction is always in one or the other.
+     * The documents are copied as stored, whatever their layout. Only ObjectIds carry a creation time, transactions
+     * with any other id are never archived.
+     *
+     * @return the ids of the transactions moved, in id order.
+     */
+    Flux<String> archiveCaptured(Instant createdBefore, String after, int limit);
+
+    /**
+     * Reads the transaction with the given id from the archive collection.
+     */
+    Mono<Transaction> findArchived(String transactionId);
+
+    /**
+     * Same as {@link #findStatuses}, from the archive collection.
+     */
+    Flux<Transaction> findArchivedStatuses(Collection<String> ids);
+
+    /**
+     * Count and total amount of the transactions matching the filter per payment type and status, and per time
+     * bucket when {@code bucket} isn't null. Computed by an aggregation pipeline, only the totals leave the server.
+     */
+    Flux<TransactionTotals> aggregateTotals(TransactionFilter filter, StatsBucket bucket);
+
+    /**
+     * Quantity sold and revenue (price * quantity) per product over the order lines of the transactions matching
+     * the filter, and per time bucket when {@code bucket} isn't null.
+     */
+    Flux<ProductRevenue> aggregateRevenueByProduct(TransactionFilter filter, StatsBucket bucket);
+
+    /**
+     * Follows the change stream of the Transaction collection. Only changes leaving a transaction in one of
+     * {@code statuses} are emitted, or every change when it is empty; deletions carry no status and are always
+     * emitted. While archiving is enabled, the deletion of a transaction that was copied to the archive is emitted as
+     * {@link TransactionEvent.Type#ARCHIVED}, as a captured transaction. With a {@code resumeAfter} token, the stream
+     * starts right after the event that token belongs to.
+     */
+    Flux<TransactionEvent> watch(Collection<PaymentStatus> statuses, String resumeAfter);
+}
@@ -0,0 +1,591 @@
+package com.exercice.exercice.dao;
+
+import com.exercice.exercice.config.CompactStorage;
+import com.exercice.exercice.config.MongoClientConfiguration;
+import com.exercice.exercice.config.TransactionLayoutMigration;
+import com.exercice.exercice.config.TransactionProperties;
+import com.exercice.exercice.config.TransactionProperties.Storage.Layout;
+import com.exercice.exercice.model.BulkItemResult;
+import com.exercice.exercice.model.PaymentStatus;
+import com.exercice.exercice.model.ProductRevenue;
+import com.exercice.exercice.model.StatsBucket;
+import com.exercice.exercice.model.Transaction;
+import com.exercice.exercice.model.TransactionEvent;
+import com.exercice.exercice.model.TransactionFilter;
+import com.exercice.exercice.model.TransactionTotals;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ChangeStreamOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AddFieldsOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ConvertOperators;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.aggregation.ProjectionOperation;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.project;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.sort;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.unwind;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+public class ITransactionRepositoryCustomImpl implements ITransactionRepositoryCustom {
+
+    private static final String ID = "id";
+    private static final String AMOUNT = "amount";
+    private static final String PAYMENT_TYPE = "paymentType";
+    private static final String STATUS = "status";
+    private static final String ORDER_LINES = "orderLines";
+    private static final String VERSION = "version";
+    private static final String BUCKET = "bucket";
+    private static final String OPERATION_TYPE = "operationType";
+    private static final String RESUME_TOKEN = "_data";
+    private static final String ID_FIELD = "_id";
+    private static final Document EXISTS = new Document("$exists", true);
+
+    private static final AggregationOptions STATS_OPTIONS = AggregationOptions.builder()
+            .allowDiskUse(true)
+            .cursorBatchSize(256)
+            .build();
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    // Same as mongoTemplate, with the read preferences of transactions.mongo.reads
+    private final ReactiveMongoTemplate listingTemplate;
+    private final ReactiveMongoTemplate reportingTemplate;
+    private final TransactionProperties transactionProperties;
+    private final TransactionLayoutMigration layoutMigration;
+
+    public ITransactionRepositoryCustomImpl(ReactiveMongoTemplate mongoTemplate,
+                                            @Qualifier(MongoClientConfiguration.LISTING_TEMPLATE) ReactiveMongoTemplate listingTemplate,
+                                            @Qualifier(MongoClientConfiguration.REPORTING_TEMPLATE) ReactiveMongoTemplate reportingTemplate,
+                                            TransactionProperties transactionProperties, TransactionLayoutMigration layoutMigration) {
+        this.mongoTemplate = mongoTemplate;
+        this.listingTemplate = listingTemplate;
+        this.reportingTemplate = reportingTemplate;
+        this.transactionProperties = transactionProperties;
+        this.layoutMigration = layoutMigration;
+    }
+
+    @Override
+    public Mono<Transaction> findAndTransition(String transactionId, Transaction updatedTransaction) {
+        // A document is written in the layout it is stored in, the migration rewrites it later. While the collection
+        // is mixed, a document that isn't in the configured layout takes a second round trip
+        List<Layout> layouts = layouts();
+        Mono<Transaction> transitioned = transition(transactionId, updatedTransaction, layouts.get(0));
+        for (Layout layout : layouts.subList(1, layouts.size())) {
+            transitioned = transitioned.switchIfEmpty(Mono.defer(() -> transition(transactionId, updatedTransaction, layout)));
+        }
+        return transitioned;
+    }
+
+    private Mono<Transaction> transition(String transactionId, Transaction updatedTransaction, Layout layout) {
+        // The guard is evaluated by the server inside the update pipeline: a refused transition rewrites the
+        // document with its own values, which MongoDB treats as a no-op, and the returned pre-image tells why.
+        // Expressions of an update pipeline aren't mapped, so the whole update is written with the stored names.
+        String status = "$" + name(STATUS, layout);
+        Document allowed = updatedTransaction.getStatus() == PaymentStatus.CAPTURED
+                ? new Document("$eq", Arrays.asList(status, value(STATUS, PaymentStatus.AUTHORIZED, layout)))
+                : new Document("$ne", Arrays.asList(status, value(STATUS, PaymentStatus.CAPTURED, layout)));
+        // An update without an amount keeps the stored one, whatever the order lines add up to
+        boolean amountStated = updatedTransaction.getAmount() != 0;
+        if (amountStated && transactionProperties.getValidation().isAmountMatchesOrderLines()) {
+            // Order lines are never updated, the amount of a transaction that has some stays the total they add up to
+            String lines = "$" + name(ORDER_LINES, layout);
+            allowed = new Document("$and", Arrays.asList(allowed, new Document("$or", Arrays.asList(
+                    new Document("$eq", Arrays.asList(new Document("$size",
+                            new Document("$ifNull", Arrays.asList(lines, Collections.emptyList()))), 0)),
+                    new Document("$eq", Arrays.asList("$" + name(AMOUNT, layout), value(AMOUNT, updatedTransaction.getAmount(), layout)))))));
+        }
+
+        Document set = new Document();
+        if (amountStated) {
+            guarded(set, allowed, AMOUNT, updatedTransaction.getAmount(), layout);
+        }
+        if (updatedTransaction.getPaymentType() != null) {
+            guarded(set, allowed, PAYMENT_TYPE, updatedTransaction.getPaymentType(), layout);
+        }
+        if (updatedTransaction.getStatus() != null) {
+            guarded(set, allowed, STATUS, updatedTransaction.getStatus(), layout);
+        }
+        String version = "$" + name(VERSION, layout);
+        set.put(name(VERSION, layout), new Document("$cond", Arrays.asList(allowed,
+                new Document("$add", Arrays.asList(new Document("$ifNull", Arrays.asList(version, 0)), 1)),
+                version)));
+
+        Document filter = new Document(ID_FIELD, storedId(transactionId)).append(name(AMOUNT, layout), EXISTS);
+        if (updatedTransaction.getVersion() != null) {
+            filter.putAll(versionIs(updatedTransaction.getVersion(), layout));
+        }
+        return mongoTemplate.getCollection(collection())
+                .flatMap(collection -> Mono.from(collection.findOneAndUpdate(filter,
+                        Collections.singletonList(new Document("$set", set)),
+                        new FindOneAndUpdateOptions().returnDocument(ReturnDocument.BEFORE))))
+                .map(this::read);
+    }
+
+    @Override
+    public Flux<Transaction> findPage(TransactionFilter filter, String after, int limit) {
+        return find(listingTemplate, page(filter, after, limit));
+    }
+
+    @Override
+    public Flux<Transaction> streamAll(TransactionFilter filter, int batchSize) {
+        return find(listingTemplate, filtered(filter).with(Sort.by(ID_FIELD)).cursorBatchSize(batchSize));
+    }
+
+    @Override
+    public Flux<Transaction> findSummaryPage(TransactionFilter filter, String after, int limit) {
+        return find(listingTemplate, without(page(filter, after, limit), ORDER_LINES));
+    }
+
+    @Override
+    public Flux<Transaction> streamSummaries(TransactionFilter filter, int batchSize) {
+        return find(listingTemplate, without(filtered(filter).with(Sort.by(ID_FIELD)).cursorBatchSize(batchSize), ORDER_LINES));
+    }
+
+    @Override
+    public Mono<Transaction> findSummaryById(String transactionId) {
+        return find(mongoTemplate, without(byId(transactionId), ORDER_LINES)).next();
+    }
+
+    @Override
+    public Mono<Transaction> findOrderLines(String transactionId) {
+        return find(mongoTemplate, only(byId(transactionId), ORDER_LINES)).next();
+    }
+
+    @Override
+    public Flux<BulkItemResult> insertUnordered(List<Transaction> transactions) {
+        List<Document> documents = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            if (transaction.getId() == null) {
+                transaction.setId(new ObjectId().toHexString());
+            }
+            // What the template would have set on an insert
+            transaction.setVersion(0L);
+            Document document = new Document();
+            mongoTemplate.getConverter().write(transaction, document);
+            // Saves through the template get this from the storage layout listener
+            CompactStorage.beforeSave(document, transactionProperties.getStorage().getLayout());
+            documents.add(document);
+        }
+
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(Transaction.class))
+                .flatMap(collection -> Mono.from(collection.insertMany(documents, new InsertManyOptions().ordered(false))))
+                .map(result -> Collections.<Integer, String>emptyMap())
+                .onErrorResume(MongoBulkWriteException.class, error -> {
+                    Map<Integer, String> failures = new HashMap<>();
+                    for (BulkWriteError writeError : error.getWriteErrors()) {
+                        failures.put(writeError.getIndex(), writeError.getMessage());
+                    }
+                    return Mono.just(failures);
+                })
+                .flatMapMany(failures -> Flux.range(0, transactions.size())
+                        .map(index -> failures.containsKey(index)
+                                ? BulkItemResult.failed(index, transactions.get(index).getId(), failures.get(index))
+                                : BulkItemResult.created(index, transactions.get(index).getId())));
+    }
+
+    @Override
+    public Flux<Transaction> findStatuses(Collection<String> ids) {
+        return find(mongoTemplate, only(byIds(ids), STATUS));
+    }
+
+    @Override
+    public Flux<Transaction> streamStatuses(TransactionFilter filter, int batchSize) {
+        return find(mongoTemplate, only(filtered(filter).with(Sort.by(ID_FIELD)).cursorBatchSize(batchSize), STATUS));
+    }
+
+    @Override
+    public Flux<String> captureAuthorized(Collection<String> ids) {
+        // An updateMany only counts what it changed: when another request captured some of the ids first, both
+        // leave the same documents behind and nothing tells whose capture each one is. One update per id does, they
+        // are sent concurrently and each document keeps the layout it is stored in
+        return Flux.fromIterable(ids)
+                .flatMap(id -> captureAuthorized(id).filter(Boolean::booleanValue).map(captured -> id),
+                        Math.max(ids.size(), 1));
+    }
+
+    private Mono<Boolean> captureAuthorized(String id) {
+        return Flux.fromIterable(layouts())
+                .concatMap(layout -> mongoTemplate.updateFirst(
+                        new BasicQuery(new Document(ID_FIELD, storedId(id))
+                                .append(name(STATUS, layout), value(STATUS, PaymentStatus.AUTHORIZED, layout))),
+                        new Update().set(name(STATUS, layout), value(STATUS, PaymentStatus.CAPTURED, layout))
+                                .inc(name(VERSION, layout), 1),
+                        collection()))
+                .any(result -> result.getModifiedCount() > 0);
+    }
+
+    @Override
+    public Mono<Boolean> deleteUnchanged(String transactionId, Long version) {
+        // The version is compared in the layout of the document only, a missing version counting as 0
+        Document filter = inLayouts(layout -> {
+            Document inLayout = new Document(name(AMOUNT, layout), EXISTS);
+            inLayout.putAll(versionIs(version, layout));
+            return inLayout;
+        });
+        filter.append(ID_FIELD, storedId(transactionId));
+        return mongoTemplate.remove(new BasicQuery(filter), collection())
+                .map(result -> result.getDeletedCount() > 0);
+    }
+
+    @Override
+    public Flux<String> archiveCaptured(Instant createdBefore, String after, int limit) {
+        // Raw documents, so that they are archived in the layout they are stored in
+        Document range = new Document("$lt", ObjectId.getSmallestWithDate(Date.from(createdBefore)));
+        if (after != null) {
+            range.append("$gt", new ObjectId(after));
+        }
+        Document filter = captured().append("_id", range);
+        String archive = transactionProperties.getArchive().getCollection();
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(Transaction.class))
+                .flatMapMany(transactions -> Flux.from(transactions.find(filter).sort(new Document("_id", 1)).limit(limit))
+                        .collectList()
+                        .filter(documents -> !documents.isEmpty())
+                        .flatMapMany(documents -> {
+                            // Upserts, so that a batch interrupted between the two writes is simply moved again
+                            List<WriteModel<Document>> copies = new ArrayList<>(documents.size());
+                            List<Object> ids = new ArrayList<>(documents.size());
+                            for (Document document : documents) {
+                                Object id = document.get("_id");
+                                copies.add(new ReplaceOneModel<>(new Document("_id", id), document, new ReplaceOptions().upsert(true)));
+                                ids.add(id);
+                            }
+                            Document moved = captured().append("_id", new Document("$in", ids));
+                            return mongoTemplate.getCollection(archive)
+                                    .flatMap(archived -> Mono.from(archived.bulkWrite(copies, new BulkWriteOptions().ordered(false))))
+                                    .then(Mono.from(transactions.deleteMany(moved)))
+                                    .thenMany(Flux.fromIterable(ids))
+                                    .map(id -> ((ObjectId) id).toHexString());
+                        }));
+    }
+
+    @Override
+    public Mono<Transaction> findArchived(String transactionId) {
+        return mongoTemplate.findOne(Query.query(where(ID).is(transactionId)), Transaction.class,
+                transactionProperties.getArchive().getCollection());
+    }
+
+    @Override
+    public Flux<Transaction> findArchivedStatuses(Collection<String> ids) {
+        // The archive isn't migrated, it keeps documents of both layouts
+        Query query = byIds(ids);
+        for (Layout layout : Layout.values()) {
+            query.fields().include(name(STATUS, layout));
+        }
+        return mongoTemplate.find(query, Document.class, transactionProperties.getArchive().getCollection())
+                .map(this::read);
+    }
+
+    @Override
+    public Flux<TransactionTotals> aggregateTotals(TransactionFilter filter, StatsBucket bucket) {
+        List<AggregationOperation> operations = new ArrayList<>();
+        addMatch(operations, filter);
+        String[] keys = bucket == null ? new String[]{PAYMENT_TYPE, STATUS} : new String[]{PAYMENT_TYPE, STATUS, BUCKET};
+        if (bucket != null) {
+            operations.add(project(PAYMENT_TYPE, STATUS, AMOUNT).and(bucketOf(bucket)).as(BUCKET));
+        }
+        operations.add(group(keys).count().as("count").sum(AMOUNT).as("totalAmount"));
+        operations.add(ungrouped(keys, "count", "totalAmount"));
+        addUnscaled(operations, "totalAmount");
+        operations.add(sort(Sort.by(keys)));
+
+        TypedAggregation<Transaction> aggregation = Aggregation.newAggregation(Transaction.class, operations)
+                .withOptions(STATS_OPTIONS);
+        return reportingTemplate.aggregate(aggregation, TransactionTotals.class);
+    }
+
+    @Override
+    public Flux<ProductRevenue> aggregateRevenueByProduct(TransactionFilter filter, StatsBucket bucket) {
+        List<AggregationOperation> operations = new ArrayList<>();
+        addMatch(operations, filter);
+        operations.add(unwind(ORDER_LINES));
+        String[] keys = bucket == null ? new String[]{"productName"} : new String[]{"productName", BUCKET};
+        ProjectionOperation lines = project()
+                .and(ORDER_LINES + ".productName").as("productName")
+                .and(ORDER_LINES + ".quantity").as("quantity")
+                .and(ArithmeticOperators.valueOf(ORDER_LINES + ".price").multiplyBy(ORDER_LINES + ".quantity")).as("revenue");
+        operations.add(bucket == null ? lines : lines.and(bucketOf(bucket)).as(BUCKET));
+        operations.add(group(keys).sum("quantity").as("quantity").sum("revenue").as("revenue"));
+        operations.add(ungrouped(keys, "quantity", "revenue"));
+        addUnscaled(operations, "revenue");
+        operations.add(sort(Sort.by(keys)));
+
+        TypedAggregation<Transaction> aggregation = Aggregation.newAggregation(Transaction.class, operations)
+                .withOptions(STATS_OPTIONS);
+        return reportingTemplate.aggregate(aggregation, ProductRevenue.class);
+    }
+
+    @Override
+    public Flux<TransactionEvent> watch(Collection<PaymentStatus> statuses, String resumeAfter) {
+        // Fields of the filter other than operationType are matched against the fullDocument of the event
+        Criteria changes = where(OPERATION_TYPE).in(OperationType.INSERT.getValue(), OperationType.UPDATE.getValue(),
+                OperationType.REPLACE.getValue(), OperationType.DELETE.getValue());
+        if (!statuses.isEmpty()) {
+            List<Criteria> kept = new ArrayList<>();
+            kept.add(where(OPERATION_TYPE).is(OperationType.DELETE.getValue()));
+            for (Layout layout : layouts()) {
+                kept.add(where(name(STATUS, layout)).in(statuses.stream()
+                        .map(status -> value(STATUS, status, layout))
+                        .collect(Collectors.toList())));
+            }
+            changes = new Criteria().andOperator(changes, new Criteria().orOperator(kept));
+        }
+        ChangeStreamOptions.ChangeStreamOptionsBuilder options = ChangeStreamOptions.builder()
+                .filter(Aggregation.newAggregation(match(changes)))
+                .returnFullDocumentOnUpdate();
+        if (resumeAfter != null) {
+            options.resumeAfter(new BsonDocument(RESUME_TOKEN, new BsonString(resumeAfter)));
+        }
+        boolean captured = statuses.isEmpty() || statuses.contains(PaymentStatus.CAPTURED);
+        return mongoTemplate.changeStream(mongoTemplate.getCollectionName(Transaction.class), options.build(), Document.class)
+                .map(this::toEvent)
+                // In order, an event is only passed on once the deletions before it have been told apart
+                .concatMap(event -> event.getType() == TransactionEvent.Type.DELETED ? archived(event) : Mono.just(event))
+                .filter(event -> event.getType() != TransactionEvent.Type.ARCHIVED || captured);
+    }
+
+    // The archiver copies a transaction before deleting it, so a deletion whose id is in the archive is a move
+    private Mono<TransactionEvent> archived(TransactionEvent event) {
+        TransactionProperties.Archive archive = transactionProperties.getArchive();
+        if (!archive.isEnabled()) {
+            return Mono.just(event);
+        }
+        return mongoTemplate.findOne(byId(event.getTransactionId()), Document.class, archive.getCollection())
+                .map(document -> {
+                    event.setType(TransactionEvent.Type.ARCHIVED);
+                    event.setTransaction(read(document));
+                    return event;
+                })
+                .defaultIfEmpty(event);
+    }
+
+    private Query page(TransactionFilter filter, String after, int limit) {
+        Document query = inLayouts(layout -> criteria(filter, layout));
+        if (after != null) {
+            // Ids generated by MongoDB are ObjectIds, a range on the raw string would never match them
+            query.append(ID_FIELD, new Document("$gt", storedId(after)));
+        }
+        return new BasicQuery(query).with(Sort.by(ID_FIELD)).limit(limit);
+    }
+
+    private Query filtered(TransactionFilter filter) {
+        return new BasicQuery(inLayouts(layout -> criteria(filter, layout)));
+    }
+
+    private static Document criteria(TransactionFilter filter, Layout layout) {
+        Document criteria = new Document();
+        if (filter.getStatus() != null) {
+            criteria.put(name(STATUS, layout), value(STATUS, filter.getStatus(), layout));
+        }
+        if (filter.getPaymentType() != null) {
+            criteria.put(name(PAYMENT_TYPE, layout), value(PAYMENT_TYPE, filter.getPaymentType(), layout));
+        }
+        if (filter.getMinAmount() != null || filter.getMaxAmount() != null) {
+            Document amount = new Document();
+            if (filter.getMinAmount() != null) {
+                amount.put("$gte", value(AMOUNT, filter.getMinAmount(), layout));
+            }
+            if (filter.getMaxAmount() != null) {
+                amount.put("$lte", value(AMOUNT, filter.getMaxAmount(), layout));
+            }
+            criteria.put(name(AMOUNT, layout), amount);
+        }
+        return criteria;
+    }
+
+    private void addMatch(List<AggregationOperation> operations, TransactionFilter filter) {
+        // Written with the stored names, a typed $match would only match the configured layout
+        Document match = inLayouts(layout -> criteria(filter, layout));
+        if (!match.isEmpty()) {
+            operations.add(context -> new Document("$match", match));
+        }
+        if (layoutMigration.isMixed()) {
+            Document normalizing = CompactStorage.normalizing(layout());
+            operations.add(context -> normalizing);
+        }
+    }
+
+    /**
+     * Filter matching the documents of every layout they may be stored in, {@code inLayout} giving the filter of
+     * one layout. Only the configured layout is matched unless the collection is mixed.
+     */
+    private Document inLayouts(Function<Layout, Document> inLayout) {
+        List<Layout> layouts = layouts();
+        if (layouts.size() == 1) {
+            return inLayout.apply(layouts.get(0));
+        }
+        List<Document> branches = new ArrayList<>(layouts.size());
+        for (Layout layout : layouts) {
+            Document branch = inLayout.apply(layout);
+            if (branch.isEmpty()) {
+                return new Document();
+            }
+            branches.add(branch);
+        }
+        return new Document("$or", branches);
+    }
+
+    private List<Layout> layouts() {
+        return layoutMigration.isMixed()
+                ? Arrays.asList(layout(), layout().other())
+                : Collections.singletonList(layout());
+    }
+
+    private Layout layout() {
+        return transactionProperties.getStorage().getLayout();
+    }
+
+    private Document captured() {
+        return inLayouts(layout -> new Document(name(STATUS, layout), value(STATUS, PaymentStatus.CAPTURED, layout)));
+    }
+
+    private Flux<Transaction> find(ReactiveMongoTemplate template, Query query) {
+        // Raw documents, read through the storage layout like the template does for Transaction.class
+        return template.find(query, Document.class, collection()).map(this::read);
+    }
+
+    private Query byId(String transactionId) {
+        return new BasicQuery(new Document(ID_FIELD, storedId(transactionId)));
+    }
+
+    private Query byIds(Collection<String> ids) {
+        return new BasicQuery(new Document(ID_FIELD, new Document("$in",
+                ids.stream().map(ITransactionRepositoryCustomImpl::storedId).collect(Collectors.toList()))));
+    }
+
+    private Query without(Query query, String property) {
+        for (Layout layout : layouts()) {
+            query.fields().exclude(name(property, layout));
+        }
+        return query;
+    }
+
+    private Query only(Query query, String property) {
+        for (Layout layout : layouts()) {
+            query.fields().include(name(property, layout));
+        }
+        return query;
+    }
+
+    private String collection() {
+        return mongoTemplate.getCollectionName(Transaction.class);
+    }
+
+    private static Object storedId(String id) {
+        // What the template does with the String id of Transaction
+        return ObjectId.isValid(id) ? new ObjectId(id) : id;
+    }
+
+    private static String name(String property, Layout layout) {
+        return CompactStorage.fieldName(property, layout);
+    }
+
+    private static Object value(String property, Object value, Layout layout) {
+        return CompactStorage.storedValue(property, value, layout);
+    }
+
+    private ProjectionOperation ungrouped(String[] keys, String... values) {
+        // Moves the group keys out of _id, which holds the key itself rather than a document when there is only one
+        return keys.length == 1
+                ? project(values).and(keys[0]).previousOperation()
+                : project(values).andInclude(keys).andExclude("_id");
+    }
+
+    private AggregationExpression bucketOf(StatsBucket bucket) {
+        // ObjectIds carry their creation time, which spares an extra timestamp field. Ids chosen by the client carry
+        // none, they are counted in a null bucket rather than failing the whole aggregation
+        return DateOperators.dateOf(ConvertOperators.valueOf(ID).convertTo("date").onErrorReturn(null).onNullReturn(null))
+                .toString(bucket.getFormat());
+    }
+
+    private static void guarded(Document set, Document allowed, String property, Object value, Layout layout) {
+        String field = name(property, layout);
+        set.put(field, new Document("$cond", Arrays.asList(allowed,
+                new Document("$literal", value(property, value, layout)), "$" + field)));
+    }
+
+    private static Document versionIs(Long version, Layout layout) {
+        // Documents written before versioning have none, which counts as version 0
+        return new Document(name(VERSION, layout), version == null || version == 0
+                ? new Document("$in", Arrays.asList(0L, null))
+                : version);
+    }
+
+    private boolean compact() {
+        return transactionProperties.getStorage().getLayout() == TransactionProperties.Storage.Layout.COMPACT;
+    }
+
+    private void addUnscaled(List<AggregationOperation> operations, String... money) {
+        // Sums of minor units are only divided once, at the end, so that they stay exact until then
+        if (compact()) {
+            AddFieldsOperation.AddFieldsOperationBuilder fields = Aggregation.addFields();
+            for (String field : money) {
+                fields.addFieldWithValue(field, ArithmeticOperators.valueOf(field).divideBy(CompactStorage.MINOR_UNITS));
+            }
+            operations.add(fields.build());
+        }
+    }
+
+    private TransactionEvent toEvent(ChangeStreamEvent<Document> event) {
+        BsonValue id = event.getRaw().getDocumentKey().get("_id");
+        TransactionEvent.Type type = event.getOperationType() == OperationType.INSERT ? TransactionEvent.Type.CREATED
+                : event.getOperationType() == OperationType.DELETE ? TransactionEvent.Type.DELETED
+                : TransactionEvent.Type.UPDATED;
+        return TransactionEvent.builder()
+                .id(event.getResumeToken().asDocument().getString(RESUME_TOKEN).getValue())
+                .type(type)
+                .transactionId(id.isObjectId() ? id.asObjectId().getValue().toHexString() : id.asString().getValue())
+                .transaction(read(event.getBody()))
+                .build();
+    }
+
+    private Transaction read(Document document) {
+        // Change events are not loaded through the template, so they miss the storage layout listener
+        if (document == null) {
+            return null;
+        }
+        CompactStorage.afterLoad(document, transactionProperties.getStorage().getLayout());
+        return mongoTemplate.getConverter().read(Transaction.class, document);
+    }
+}
@@ -0,0 +1,19 @@
+package com.exercice.exercice.exceptions;
+
+import org.springframework.dao.OptimisticLockingFailureException;
+
+/**
+ * A transaction changed between being read and being written. Expected under contention and retried or answered
+ * with 409, so it doesn't pay for a stack trace.
+ */
+public class TransactionConflictException extends OptimisticLockingFailureException {
+
+    public TransactionConflictException(String transactionId) {
+        super("Transaction '" + transactionId + "' was changed by another request");
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -2,24 +2,74 @@ package com.exercice.exercice.exceptions;
 
 import com.exercice.exercice.model.PaymentStatus;
 
+/**
+ * Expected refusal of a request, answered with a status code rather than investigated: it carries no stack trace,
+ * and the refusals that don't depend on the transaction are allocated once.
+ */
 public class TransactionException extends Exception{
-    public TransactionException(String s) {
-        super(s);
+
+    /**
+     * Why a request on a transaction was refused, used to tag the rejection metrics.
+     */
+    public enum Reason {
+        NOT_FOUND, UPDATE_CAPTURED, DELETE_CAPTURED, CAPTURE_UNAUTHORIZED, INVALID, KEY_REUSED, KEY_IN_PROGRESS, DUPLICATE
+    }
+
+    private static final TransactionException UPDATE_CAPTURED =
+            new TransactionException(Reason.UPDATE_CAPTURED, "Cannot modify a captured transaction.");
+    private static final TransactionException DELETE_CAPTURED =
+            new TransactionException(Reason.DELETE_CAPTURED, "Cannot delete a captured transaction.");
+    private static final TransactionException CAPTURE_UNAUTHORIZED =
+            new TransactionException(Reason.CAPTURE_UNAUTHORIZED, "Cannot change the status of the payment to: "+ PaymentStatus.CAPTURED.name()+" unless it is "+PaymentStatus.AUTHORIZED.name());
+
+    private static final TransactionException KEY_REUSED =
+            new TransactionException(Reason.KEY_REUSED, "The Idempotency-Key was already used with another request body.");
+    private static final TransactionException KEY_IN_PROGRESS =
+            new TransactionException(Reason.KEY_IN_PROGRESS, "A request with the same Idempotency-Key is in progress, or its outcome couldn't be recorded.");
+    private static final TransactionException DUPLICATE =
+            new TransactionException(Reason.DUPLICATE, "A transaction with the same id already exists.");
+
+    private final Reason reason;
+
+    public TransactionException(Reason reason, String s) {
+        // Neither suppressed exceptions nor a stack trace, so that a shared instance stays as it was created
+        super(s, null, false, false);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    public static TransactionException cannotFind(String id){
+        return new TransactionException(Reason.NOT_FOUND, "Couldn't find the giving transaction '"+id+"'");
+    }
+
+    public static TransactionException invalid(String message) {
+        return new TransactionException(Reason.INVALID, message);
+    }
+
+    public static TransactionException cannotUpdateCaptured(){
+        return UPDATE_CAPTURED;
+    }
+
+    public static TransactionException cannotDeleteCaptured() {
+        return DELETE_CAPTURED;
     }
 
-    public static Exception cannotFind(String id){
-        return new TransactionException("Couldn't find the giving transaction '"+id+"'");
+    public static TransactionException cannotCaptureUnAuthorized(){
+        return CAPTURE_UNAUTHORIZED;
     }
 
-    public static Exception cannotUpdateCaptured(){
-        return new TransactionException("Cannot modify a captured transaction.");
+    public static TransactionException keyReused() {
+        return KEY_REUSED;
     }
 
-    public static Exception cannotDeleteCaptured() {
-        return new TransactionException("Cannot delete a captured transaction.");
+    public static TransactionException keyInProgress() {
+        return KEY_IN_PROGRESS;
     }
 
-    public static Exception cannotCaptureUnAuthorized(){
-        return new TransactionException("Cannot change the status of the payment to: "+ PaymentStatus.CAPTURED.name()+" unless it is "+PaymentStatus.AUTHORIZED.name());
+    public static TransactionException duplicate() {
+        return DUPLICATE;
     }
 }
@@ -0,0 +1,29 @@
+package com.exercice.exercice.model;
+
+import lombok.*;
+
+@Builder
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class BulkItemResult {
+    // Position of the item in the submitted payload
+    private long index;
+    private String id;
+    private Status status;
+    private String error;
+
+    public enum Status {
+        CREATED, FAILED
+    }
+
+    public static BulkItemResult created(long index, String id) {
+        return new BulkItemResult(index, id, Status.CREATED, null);
+    }
+
+    public static BulkItemResult failed(long index, String id, String error) {
+        return new BulkItemResult(index, id, Status.FAILED, error);
+    }
+}
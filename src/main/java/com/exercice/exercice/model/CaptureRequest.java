@@ -0,0 +1,20 @@
+package com.exercice.exercice.model;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Transactions to capture, either listed by id or selected by a filter. A filter only ever selects AUTHORIZED
+ * transactions, whatever status it asks for.
+ */
+@Builder
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class CaptureRequest {
+    private List<String> ids;
+    private TransactionFilter filter;
+}
@@ -0,0 +1,32 @@
+package com.exercice.exercice.model;
+
+import lombok.*;
+
+@Builder
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class CaptureResult {
+    private String id;
+    private Outcome outcome;
+    // Status the transaction was left in, null when it doesn't exist
+    private PaymentStatus status;
+
+    public enum Outcome {
+        CAPTURED, NOT_FOUND, WRONG_STATE
+    }
+
+    public static CaptureResult captured(String id) {
+        return new CaptureResult(id, Outcome.CAPTURED, PaymentStatus.CAPTURED);
+    }
+
+    public static CaptureResult notFound(String id) {
+        return new CaptureResult(id, Outcome.NOT_FOUND, null);
+    }
+
+    public static CaptureResult wrongState(String id, PaymentStatus status) {
+        return new CaptureResult(id, Outcome.WRONG_STATE, status);
+    }
+}
@@ -0,0 +1,13 @@
+package com.exercice.exercice.model;
+
+import lombok.*;
+
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class ErrorResponse {
+    // A TransactionException reason, or CONFLICT
+    private String reason;
+    private String message;
+}
@@ -0,0 +1,29 @@
+package com.exercice.exercice.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Response of a request sent with an Idempotency-Key header, replayed when the same key comes back. Records are
+ * removed by a TTL index on {@code createdAt}, see {@code IdempotencyIndexInitializer}.
+ */
+@Builder
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+@Document("IdempotencyRecord")
+public class IdempotencyRecord {
+    // Endpoint and key of the request, e.g. "POST /transactions:3f7c..."
+    @Id
+    private String id;
+    // SHA-256 of the request body, a replay with another body is refused
+    private String requestHash;
+    // Null while the request runs, the key is only reserved
+    private Transaction response;
+    private Date createdAt;
+}
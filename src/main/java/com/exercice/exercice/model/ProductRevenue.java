@@ -0,0 +1,18 @@
+package com.exercice.exercice.model;
+
+import lombok.*;
+
+@Builder
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class ProductRevenue {
+    private String productName;
+    // Null unless the statistic was asked per time bucket
+    private String bucket;
+    private long quantity;
+    // Sum of price * quantity over the order lines of the product
+    private double revenue;
+}
@@ -0,0 +1,19 @@
+package com.exercice.exercice.model;
+
+/**
+ * Time bucket of a statistic, taken from the creation time held in the transaction's ObjectId. Transactions whose id
+ * isn't an ObjectId are counted in a null bucket.
+ */
+public enum StatsBucket {
+    HOUR("%Y-%m-%dT%H:00Z"), DAY("%Y-%m-%d"), MONTH("%Y-%m");
+
+    private final String format;
+
+    StatsBucket(String format) {
+        this.format = format;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+}
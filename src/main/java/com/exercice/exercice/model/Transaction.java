@@ -3,6 +3,9 @@ package com.exercice.exercice.model;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.List;
@@ -14,14 +17,22 @@ import java.util.List;
 @NoArgsConstructor
 @ToString
 @Document("Transaction")
+// Equality fields first and _id last, so that a filtered page is read in id order straight from the index
+@CompoundIndex(name = "status_paymentType_id", def = "{'status': 1, 'paymentType': 1, '_id': 1}")
+@CompoundIndex(name = "status_id", def = "{'status': 1, '_id': 1}")
+@CompoundIndex(name = "paymentType_id", def = "{'paymentType': 1, '_id': 1}")
 public class Transaction {
     @JsonProperty("id")
     @Id
     private String id;
+    @Indexed(name = "amount")
     private double amount;
     private PaymentType paymentType;
     @Builder.Default
     private PaymentStatus status =PaymentStatus.NEW ;
     private List<OrderLine> orderLines;
+    // Incremented by every write, a PUT carrying it is only applied to that version
+    @Version
+    private Long version;
 
 }
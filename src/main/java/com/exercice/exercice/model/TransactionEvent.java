@@ -0,0 +1,30 @@
+package com.exercice.exercice.model;
+
+import lombok.*;
+
+/**
+ * A change to the Transaction collection, as pushed on {@code /transactions/events}.
+ */
+@Builder
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class TransactionEvent {
+
+    public enum Type {
+        CREATED,
+        UPDATED,
+        DELETED,
+        // Moved to the archive collection, it is still served by GET /transactions/{id}
+        ARCHIVED
+    }
+
+    // Change stream resume token, sent back as Last-Event-ID to resume after this event
+    private String id;
+    private Type type;
+    private String transactionId;
+    // The transaction after the change, as archived for a move to the archive, null for a deletion
+    private Transaction transaction;
+}
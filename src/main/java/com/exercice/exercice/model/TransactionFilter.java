@@ -0,0 +1,23 @@
+package com.exercice.exercice.model;
+
+import lombok.*;
+
+/**
+ * Optional criteria of a transaction listing, every field left null matches everything.
+ */
+@Builder
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class TransactionFilter {
+    private PaymentStatus status;
+    private PaymentType paymentType;
+    private Double minAmount;
+    private Double maxAmount;
+
+    public static TransactionFilter none() {
+        return new TransactionFilter();
+    }
+}
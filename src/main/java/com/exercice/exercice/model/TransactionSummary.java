@@ -0,0 +1,25 @@
+package com.exercice.exercice.model;
+
+import lombok.*;
+
+/**
+ * A transaction without its order lines, answered with {@code view=summary}.
+ */
+@Builder
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class TransactionSummary {
+    private String id;
+    private double amount;
+    private PaymentType paymentType;
+    private PaymentStatus status;
+    private Long version;
+
+    public static TransactionSummary of(Transaction transaction) {
+        return new TransactionSummary(transaction.getId(), transaction.getAmount(), transaction.getPaymentType(),
+                transaction.getStatus(), transaction.getVersion());
+    }
+}
@@ -0,0 +1,18 @@
+package com.exercice.exercice.model;
+
+import lombok.*;
+
+@Builder
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class TransactionTotals {
+    private PaymentType paymentType;
+    private PaymentStatus status;
+    // Null unless the statistic was asked per time bucket
+    private String bucket;
+    private long count;
+    private double totalAmount;
+}
@@ -0,0 +1,28 @@
+package com.exercice.exercice.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.TimeSeries;
+import org.springframework.data.mongodb.core.timeseries.Granularity;
+
+import java.time.Instant;
+
+/**
+ * One entry of the history of a transaction, kept in a time-series collection bucketed by transaction.
+ */
+@Builder
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+@TimeSeries(collection = "TransactionHistory", timeField = "at", metaField = "transactionId", granularity = Granularity.SECONDS)
+public class TransactionTransition {
+    @Id
+    private String id;
+    private String transactionId;
+    // Null when the transaction was created
+    private PaymentStatus from;
+    private PaymentStatus to;
+    private Instant at;
+}
@@ -0,0 +1,125 @@
+package com.exercice.exercice.service;
+
+import com.exercice.exercice.config.TransactionProperties;
+import com.exercice.exercice.dao.IIdempotencyRecordRepository;
+import com.exercice.exercice.exceptions.TransactionException;
+import com.exercice.exercice.model.IdempotencyRecord;
+import com.exercice.exercice.model.Transaction;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Runs a write at most once per Idempotency-Key. The key is reserved in the IdempotencyRecord collection before the
+ * write runs and its response recorded once it is done. A replayed key gets that response, from memory when this
+ * instance has it, from the collection otherwise, and is refused with 409 while there is none yet; a key sent again
+ * with another body is refused with 422. Concurrent requests with the same key share the one in-flight execution.
+ * Failed requests release the key, so the client can retry them.
+ */
+@Slf4j
+@Service
+public class IdempotencyService {
+
+    private final IIdempotencyRecordRepository idempotencyRecordRepository;
+    private final ObjectMapper objectMapper;
+    private final Cache<String, IdempotencyRecord> completed;
+    private final Map<String, Mono<Transaction>> inFlight = new ConcurrentHashMap<>();
+
+    public IdempotencyService(IIdempotencyRecordRepository idempotencyRecordRepository, ObjectMapper objectMapper,
+                              TransactionProperties transactionProperties) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.objectMapper = objectMapper;
+        TransactionProperties.Idempotency properties = transactionProperties.getIdempotency();
+        this.completed = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfterWrite(properties.getTtl())
+                .build();
+    }
+
+    public Mono<Transaction> execute(String scope, String idempotencyKey, Object request, Supplier<Mono<Transaction>> action) {
+        if (idempotencyKey == null) {
+            return Mono.defer(action);
+        }
+        String id = scope + ":" + idempotencyKey;
+        return Mono.defer(() -> {
+            String requestHash = hash(request);
+            IdempotencyRecord record = completed.getIfPresent(id);
+            if (record != null) {
+                return replay(record, requestHash);
+            }
+            // Keyed by the body as well, a different body under the same key is refused rather than handed this result
+            return inFlight.computeIfAbsent(id + "#" + requestHash, key -> reserve(id, requestHash)
+                    .flatMap(reserved -> reserved
+                            ? run(id, requestHash, action)
+                            : idempotencyRecordRepository.findById(id)
+                            // Expired between the two reads, the client only has to retry
+                            .switchIfEmpty(Mono.error(TransactionException::keyInProgress))
+                            .flatMap(existing -> replay(existing, requestHash)))
+                    .doFinally(signal -> inFlight.remove(key))
+                    .cache());
+        });
+    }
+
+    private Mono<Boolean> reserve(String id, String requestHash) {
+        return idempotencyRecordRepository.insert(new IdempotencyRecord(id, requestHash, null, new Date()))
+                .thenReturn(true)
+                // Another request holds the key, on this instance earlier or on another one
+                .onErrorResume(DuplicateKeyException.class, error -> Mono.just(false));
+    }
+
+    private Mono<Transaction> run(String id, String requestHash, Supplier<Mono<Transaction>> action) {
+        return Mono.defer(action)
+                .onErrorResume(error -> idempotencyRecordRepository.deleteById(id)
+                        .onErrorResume(release -> {
+                            log.warn("Could not release Idempotency-Key {}, it is refused until it expires", id, release);
+                            return Mono.empty();
+                        })
+                        .then(Mono.error(error)))
+                .flatMap(result -> {
+                    IdempotencyRecord record = new IdempotencyRecord(id, requestHash, result, new Date());
+                    completed.put(id, record);
+                    return idempotencyRecordRepository.save(record)
+                            .thenReturn(result)
+                            // The write is done whatever happens to its record: the key stays reserved, so that a
+                            // retry reaching another instance is refused instead of writing a second time
+                            .onErrorResume(error -> {
+                                log.warn("Could not record the response of Idempotency-Key {}", id, error);
+                                return Mono.just(result);
+                            });
+                });
+    }
+
+    private static Mono<Transaction> replay(IdempotencyRecord record, String requestHash) {
+        // Records written before the request hash was kept have none, they are replayed as they were
+        if (record.getRequestHash() != null && !Objects.equals(record.getRequestHash(), requestHash)) {
+            return Mono.error(TransactionException.keyReused());
+        }
+        if (record.getResponse() == null) {
+            return Mono.error(TransactionException.keyInProgress());
+        }
+        return Mono.just(record.getResponse());
+    }
+
+    private String hash(Object request) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(request));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Could not hash the request", e);
+        }
+    }
+}
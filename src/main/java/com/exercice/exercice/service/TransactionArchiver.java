@@ -0,0 +1,97 @@
+package com.exercice.exercice.service;
+
+import com.exercice.exercice.config.TransactionProperties;
+import com.exercice.exercice.dao.ITransactionRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Moves the captured transactions older than {@code transactions.archive.age} out of the Transaction collection, see
+ * {@link TransactionProperties.Archive}. Each run goes through them in id order, a batch at a time with a pause in
+ * between, and the runs are repeated at a fixed interval. A run that fails is logged and simply left to the next one.
+ */
+@Slf4j
+@Component
+public class TransactionArchiver {
+
+    private final ITransactionRepository transactionRepository;
+    private final TransactionProperties.Archive properties;
+    private final LongAdder archived = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile Disposable runs;
+
+    public TransactionArchiver(ITransactionRepository transactionRepository, TransactionProperties transactionProperties,
+                               MeterRegistry registry) {
+        this.transactionRepository = transactionRepository;
+        this.properties = transactionProperties.getArchive();
+        FunctionCounter.builder("transactions.archived", archived, LongAdder::sum)
+                .description("Captured transactions moved to the archive collection")
+                .register(registry);
+        FunctionCounter.builder("transactions.archive.failed", failed, LongAdder::sum)
+                .description("Archiving runs stopped by an error, the next run picks up where they stopped")
+                .register(registry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        runs = Flux.interval(Duration.ZERO, properties.getInterval())
+                // A run longer than the interval isn't followed by a second one straight away
+                .onBackpressureDrop()
+                .concatMap(tick -> archive()
+                        .doOnNext(moved -> log.info("{} captured transactions moved to {}", moved, properties.getCollection()))
+                        .onErrorResume(error -> {
+                            failed.increment();
+                            log.warn("Archiving stopped, the next run starts over", error);
+                            return Mono.empty();
+                        }), 1)
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (runs != null) {
+            runs.dispose();
+        }
+    }
+
+    /**
+     * Moves every captured transaction created before now minus the configured age.
+     *
+     * @return how many transactions were moved.
+     */
+    public Mono<Long> archive() {
+        return Mono.defer(() -> {
+            Instant createdBefore = Instant.now().minus(properties.getAge());
+            int batchSize = properties.getBatchSize();
+            return archiveBatch(createdBefore, null, batchSize)
+                    .expand(ids -> ids.size() < batchSize
+                            ? Mono.empty()
+                            : archiveBatch(createdBefore, ids.get(ids.size() - 1), batchSize)
+                            .delaySubscription(properties.getPause()))
+                    .map(ids -> (long) ids.size())
+                    .reduce(0L, Long::sum);
+        });
+    }
+
+    private Mono<List<String>> archiveBatch(Instant createdBefore, String after, int batchSize) {
+        return transactionRepository.archiveCaptured(createdBefore, after, batchSize)
+                .collectList()
+                .doOnNext(ids -> archived.add(ids.size()));
+    }
+}
@@ -0,0 +1,133 @@
+package com.exercice.exercice.service;
+
+import com.exercice.exercice.config.TransactionProperties;
+import com.exercice.exercice.model.PaymentStatus;
+import com.exercice.exercice.model.Transaction;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded read-through cache in front of {@code findById}. A captured transaction can't change anymore, so it stays
+ * until it is evicted for size; any other transaction expires after a short TTL.
+ * <p>
+ * Misses are single-flight: concurrent readers of the same id share one query. Invalidating an id detaches its
+ * query, so readers arriving after a write start a fresh one and the detached result is never cached.
+ */
+@Component
+public class TransactionCache implements MeterBinder {
+
+    private final Cache<String, Transaction> cache;
+    private final Map<String, Mono<Transaction>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public TransactionCache(TransactionProperties transactionProperties) {
+        TransactionProperties.Cache properties = transactionProperties.getCache();
+        long mutableTtlNanos = properties.getMutableTtl().toNanos();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfter(new Expiry<String, Transaction>() {
+                    @Override
+                    public long expireAfterCreate(String id, Transaction transaction, long currentTime) {
+                        return transaction.getStatus() == PaymentStatus.CAPTURED ? Long.MAX_VALUE : mutableTtlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String id, Transaction transaction, long currentTime, long currentDuration) {
+                        return expireAfterCreate(id, transaction, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String id, Transaction transaction, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    public Mono<Transaction> get(String transactionId, Function<String, Mono<Transaction>> loader) {
+        return Mono.defer(() -> {
+            Transaction cached = cache.getIfPresent(transactionId);
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            Mono<Transaction> lookup = lookup(transactionId, loader);
+            Mono<Transaction> shared = inFlight.putIfAbsent(transactionId, lookup);
+            if (shared != null) {
+                coalesced.increment();
+                return shared;
+            }
+            lookups.increment();
+            return lookup;
+        });
+    }
+
+    private Mono<Transaction> lookup(String transactionId, Function<String, Mono<Transaction>> loader) {
+        AtomicReference<Mono<Transaction>> self = new AtomicReference<>();
+        Mono<Transaction> lookup = Mono.defer(() -> loader.apply(transactionId))
+                // Cached only while still attached, atomically with invalidate() detaching it
+                .doOnNext(transaction -> inFlight.computeIfPresent(transactionId, (id, current) -> {
+                    if (current != self.get()) {
+                        return current;
+                    }
+                    cache.put(id, transaction);
+                    return null;
+                }))
+                .doFinally(signal -> inFlight.remove(transactionId, self.get()))
+                .cache();
+        self.set(lookup);
+        return lookup;
+    }
+
+    /**
+     * The cached transaction, if any, without loading it on a miss.
+     */
+    public Mono<Transaction> peek(String transactionId) {
+        return Mono.fromSupplier(() -> cache.getIfPresent(transactionId));
+    }
+
+    /**
+     * Only captured transactions are safe to decide on without asking the database, the others may have moved on.
+     */
+    public Mono<Transaction> getCaptured(String transactionId) {
+        return peek(transactionId)
+                .filter(transaction -> transaction.getStatus() == PaymentStatus.CAPTURED);
+    }
+
+    public void invalidate(String transactionId) {
+        if (transactionId != null) {
+            inFlight.compute(transactionId, (id, current) -> {
+                cache.invalidate(id);
+                return null;
+            });
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "transactions");
+        // Coalescing ratio: coalesced="true" over the sum of both
+        FunctionCounter.builder("transactions.lookups", lookups, LongAdder::sum)
+                .description("Cache misses that queried MongoDB")
+                .tag("coalesced", "false")
+                .register(registry);
+        FunctionCounter.builder("transactions.lookups", coalesced, LongAdder::sum)
+                .description("Cache misses that joined a query already in flight for the same id")
+                .tag("coalesced", "true")
+                .register(registry);
+    }
+}
@@ -0,0 +1,157 @@
+package com.exercice.exercice.service;
+
+import com.exercice.exercice.config.TransactionProperties;
+import com.exercice.exercice.dao.ITransactionHistoryRepository;
+import com.exercice.exercice.model.PaymentStatus;
+import com.exercice.exercice.model.TransactionTransition;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind log of the status transitions of transactions. The request that made a transition only queues it;
+ * queued transitions are written to the TransactionHistory time-series collection a batch at a time, as soon as a
+ * batch is waiting or at the latest after the flush interval. A full queue drops the transition, and counts it,
+ * rather than making the request wait.
+ */
+@Slf4j
+@Component
+public class TransactionHistory {
+
+    private final ITransactionHistoryRepository historyRepository;
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final TransactionProperties.History properties;
+    // Producers and the flush take separate locks, so queueing never waits for a batch being drained
+    private final BlockingQueue<TransactionTransition> queue;
+    private final Sinks.Many<Boolean> batchReady = Sinks.many().multicast().directBestEffort();
+    // Set when a full batch is signalled, cleared once a flush drains one: concurrent producers all see the queue
+    // past the batch size, only the first of them signals it
+    private final AtomicBoolean batchSignalled = new AtomicBoolean();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final Timer flushLag;
+    private volatile Disposable flusher;
+
+    public TransactionHistory(ITransactionHistoryRepository historyRepository, ReactiveMongoTemplate mongoTemplate,
+                              TransactionProperties transactionProperties, MeterRegistry registry) {
+        this.historyRepository = historyRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.properties = transactionProperties.getHistory();
+        this.queue = new LinkedBlockingQueue<>(properties.getQueueCapacity());
+        Gauge.builder("transactions.history.queue", queue, BlockingQueue::size)
+                .description("Transitions waiting to be written to the history")
+                .register(registry);
+        FunctionCounter.builder("transactions.history.dropped", dropped, LongAdder::sum)
+                .description("Transitions left out of the history because the queue was full")
+                .register(registry);
+        FunctionCounter.builder("transactions.history.failed", failed, LongAdder::sum)
+                .description("Transitions left out of the history because writing their batch failed")
+                .register(registry);
+        this.flushLag = Timer.builder("transactions.history.flush.lag")
+                .description("Time from a transition to the write of its batch, taken for the oldest of the batch")
+                .register(registry);
+    }
+
+    public void record(String transactionId, PaymentStatus from, PaymentStatus to) {
+        TransactionTransition transition = new TransactionTransition(null, transactionId, from, to, Instant.now());
+        if (!queue.offer(transition)) {
+            dropped.increment();
+        } else if (queue.size() >= properties.getBatchSize() && batchSignalled.compareAndSet(false, true)) {
+            // Best effort: a flush already running checks the queue again once its batch is written
+            batchReady.tryEmitNext(Boolean.TRUE);
+        }
+    }
+
+    public Flux<TransactionTransition> find(String transactionId) {
+        return historyRepository.findByTransactionIdOrderByAtAsc(transactionId);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        flusher = ensureCollection()
+                .thenMany(Flux.merge(Flux.interval(properties.getFlushInterval()), batchReady.asFlux()))
+                .onBackpressureDrop()
+                .concatMap(tick -> flush(), 1)
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (flusher != null) {
+            flusher.dispose();
+        }
+        // The web server is already stopped, nothing is queued anymore
+        Integer written = flush().block(properties.getFlushInterval().multipliedBy(5));
+        log.info("{} transitions written to the history on shutdown", written);
+    }
+
+    /**
+     * Writes what is queued, a batch at a time, until less than a batch is left.
+     *
+     * @return how many transitions were written.
+     */
+    public Mono<Integer> flush() {
+        return flushBatch()
+                .expand(written -> queue.size() >= properties.getBatchSize() ? flushBatch() : Mono.empty())
+                .reduce(0, Integer::sum);
+    }
+
+    private Mono<Integer> flushBatch() {
+        return Mono.defer(() -> {
+            List<TransactionTransition> batch = new ArrayList<>(Math.min(queue.size(), properties.getBatchSize()));
+            queue.drainTo(batch, properties.getBatchSize());
+            batchSignalled.set(false);
+            if (batch.isEmpty()) {
+                return Mono.just(0);
+            }
+            Instant oldest = batch.get(0).getAt();
+            return historyRepository.insert(batch)
+                    .then(Mono.fromCallable(() -> {
+                        flushLag.record(Duration.between(oldest, Instant.now()));
+                        return batch.size();
+                    }))
+                    // Ends this flush, the next tick tries again with the transitions queued since
+                    .onErrorResume(error -> {
+                        failed.add(batch.size());
+                        log.warn("Could not write {} transitions to the history", batch.size(), error);
+                        return Mono.empty();
+                    });
+        });
+    }
+
+    private Mono<Void> ensureCollection() {
+        // Inserting into a missing collection would create a regular one, the time-series options come from the entity
+        return mongoTemplate.collectionExists(TransactionTransition.class)
+                .flatMap(exists -> exists ? Mono.empty() : mongoTemplate.createCollection(TransactionTransition.class))
+                .then(mongoTemplate.indexOps(TransactionTransition.class)
+                        .ensureIndex(new Index().on("transactionId", Sort.Direction.ASC).on("at", Sort.Direction.ASC)))
+                .doOnNext(name -> log.info("Index '{}' is in place on the TransactionHistory collection", name))
+                .onErrorResume(error -> {
+                    log.warn("Could not prepare the TransactionHistory collection, it is created on the first write", error);
+                    return Mono.empty();
+                })
+                .then();
+    }
+}
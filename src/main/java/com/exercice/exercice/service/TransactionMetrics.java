@@ -0,0 +1,91 @@
+package com.exercice.exercice.service;
+
+import com.exercice.exercice.config.TransactionProperties;
+import com.exercice.exercice.exceptions.TransactionException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Business metrics of the transaction service. Meters are registered once up front so that recording on the hot
+ * path is a map lookup and an increment.
+ */
+@Component
+public class TransactionMetrics {
+
+    private final Map<TransactionException.Reason, Counter> rejections = new EnumMap<>(TransactionException.Reason.class);
+    private final Map<TransactionProperties.Events.Overflow, Counter> overflows = new EnumMap<>(TransactionProperties.Events.Overflow.class);
+    private final Map<Write, Counter> conflicts = new EnumMap<>(Write.class);
+    private final Map<Write, Counter> retries = new EnumMap<>(Write.class);
+    private final Map<Shed, Counter> shed = new EnumMap<>(Shed.class);
+
+    /**
+     * The writes checked against the version of the transaction.
+     */
+    public enum Write {
+        UPDATE, DELETE
+    }
+
+    /**
+     * Why a request was turned away before reaching the controller.
+     */
+    public enum Shed {
+        CLIENT_RATE, ENDPOINT_RATE, CONCURRENCY
+    }
+
+    public TransactionMetrics(MeterRegistry registry) {
+        for (TransactionException.Reason reason : TransactionException.Reason.values()) {
+            rejections.put(reason, Counter.builder("transactions.rejected")
+                    .description("Requests refused by the payment status guards or the validation")
+                    .tag("reason", reason.name())
+                    .register(registry));
+        }
+        for (TransactionProperties.Events.Overflow policy : TransactionProperties.Events.Overflow.values()) {
+            overflows.put(policy, Counter.builder("transactions.events.overflow")
+                    .description("Events dropped, or subscribers disconnected, because a subscriber fell behind")
+                    .tag("policy", policy.name())
+                    .register(registry));
+        }
+        for (Write write : Write.values()) {
+            conflicts.put(write, Counter.builder("transactions.conflicts")
+                    .description("Writes that found the transaction at another version than the one expected")
+                    .tag("write", write.name())
+                    .register(registry));
+            retries.put(write, Counter.builder("transactions.conflicts.retries")
+                    .description("Writes retried after a conflict")
+                    .tag("write", write.name())
+                    .register(registry));
+        }
+        for (Shed reason : Shed.values()) {
+            shed.put(reason, Counter.builder("transactions.shed")
+                    .description("Requests answered 429 or 503 without reaching the controller")
+                    .tag("reason", reason.name())
+                    .register(registry));
+        }
+    }
+
+    public void rejected(Throwable error) {
+        if (error instanceof TransactionException) {
+            rejections.get(((TransactionException) error).getReason()).increment();
+        }
+    }
+
+    public void eventsOverflowed(TransactionProperties.Events.Overflow policy) {
+        overflows.get(policy).increment();
+    }
+
+    public void conflicted(Write write) {
+        conflicts.get(write).increment();
+    }
+
+    public void retried(Write write) {
+        retries.get(write).increment();
+    }
+
+    public void shed(Shed reason) {
+        shed.get(reason).increment();
+    }
+}
@@ -1,13 +1,40 @@
 package com.exercice.exercice.service;
 
+import com.exercice.exercice.config.TransactionProperties;
 import com.exercice.exercice.dao.ITransactionRepository;
+import com.exercice.exercice.exceptions.TransactionConflictException;
 import com.exercice.exercice.exceptions.TransactionException;
+import com.exercice.exercice.model.BulkItemResult;
+import com.exercice.exercice.model.CaptureRequest;
+import com.exercice.exercice.model.CaptureResult;
+import com.exercice.exercice.model.OrderLine;
 import com.exercice.exercice.model.PaymentStatus;
+import com.exercice.exercice.model.ProductRevenue;
+import com.exercice.exercice.model.StatsBucket;
 import com.exercice.exercice.model.Transaction;
+import com.exercice.exercice.model.TransactionEvent;
+import com.exercice.exercice.model.TransactionFilter;
+import com.exercice.exercice.model.TransactionSummary;
+import com.exercice.exercice.model.TransactionTotals;
+import com.exercice.exercice.model.TransactionTransition;
 import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import reactor.core.Exceptions;
+import reactor.core.publisher.BufferOverflowStrategy;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @RequiredArgsConstructor
 @Service
@@ -15,12 +42,194 @@ public class TransactionService {
 
 
     private final ITransactionRepository transactionRepository;
+    private final TransactionProperties transactionProperties;
+    private final TransactionCache transactionCache;
+    private final TransactionMetrics transactionMetrics;
+    private final TransactionHistory transactionHistory;
+    private final TransactionValidator transactionValidator;
 
 
     public Mono<Transaction> createTransaction(Transaction transaction) {
+        applyCreationDefaults(transaction);
+        TransactionException invalid = transactionValidator.checkNew(transaction);
+        if (invalid != null) {
+            transactionMetrics.rejected(invalid);
+            return Mono.error(invalid);
+        }
+        return transactionRepository.save(transaction)
+                .doOnNext(savedTransaction -> {
+                    transactionCache.invalidate(savedTransaction.getId());
+                    transactionHistory.record(savedTransaction.getId(), null, PaymentStatus.NEW);
+                })
+                // The version was cleared, so the save is an insert: it can only collide on the id. The driver's
+                // message names the index and the key, which the client has no use for
+                .onErrorMap(DuplicateKeyException.class, error -> TransactionException.duplicate())
+                .doOnError(transactionMetrics::rejected);
+    }
+
+    public Flux<BulkItemResult> createTransactions(Flux<Transaction> transactions) {
+        TransactionProperties.Bulk bulk = transactionProperties.getBulk();
+        int chunkSize = bulk.getChunkSize();
+        return transactions
+                .doOnNext(this::applyCreationDefaults)
+                .buffer(chunkSize)
+                .index()
+                .flatMapSequential(chunk -> insertValid(chunk.getT2())
+                        .doOnNext(result -> {
+                            result.setIndex(chunk.getT1() * chunkSize + result.getIndex());
+                            transactionCache.invalidate(result.getId());
+                            if (result.getStatus() == BulkItemResult.Status.CREATED) {
+                                transactionHistory.record(result.getId(), null, PaymentStatus.NEW);
+                            }
+                        }),
+                        bulk.getConcurrency());
+    }
+
+    /**
+     * Inserts the transactions of a chunk that pass validation, and answers for the others without sending them.
+     *
+     * @return one result per transaction, in the order of the chunk, indexed from 0 within the chunk.
+     */
+    private Flux<BulkItemResult> insertValid(List<Transaction> chunk) {
+        TransactionException[] refusals = null;
+        for (int index = 0; index < chunk.size(); index++) {
+            TransactionException invalid = transactionValidator.checkNew(chunk.get(index));
+            if (invalid != null) {
+                if (refusals == null) {
+                    refusals = new TransactionException[chunk.size()];
+                }
+                refusals[index] = invalid;
+                transactionMetrics.rejected(invalid);
+            }
+        }
+        if (refusals == null) {
+            return transactionRepository.insertUnordered(chunk);
+        }
+
+        BulkItemResult[] results = new BulkItemResult[chunk.size()];
+        List<Transaction> valid = new ArrayList<>(chunk.size());
+        // Position in the chunk of each transaction sent
+        int[] positions = new int[chunk.size()];
+        for (int index = 0; index < chunk.size(); index++) {
+            if (refusals[index] == null) {
+                positions[valid.size()] = index;
+                valid.add(chunk.get(index));
+            } else {
+                results[index] = BulkItemResult.failed(index, chunk.get(index).getId(), refusals[index].getMessage());
+            }
+        }
+        return (valid.isEmpty() ? Flux.<BulkItemResult>empty() : transactionRepository.insertUnordered(valid))
+                .doOnNext(result -> {
+                    int index = positions[(int) result.getIndex()];
+                    result.setIndex(index);
+                    results[index] = result;
+                })
+                .thenMany(Flux.defer(() -> Flux.fromArray(results)));
+    }
+
+    /**
+     * Captures transactions chunk by chunk: one query reads the statuses of a chunk (unless the filter already did),
+     * concurrent conditional updates capture its AUTHORIZED transactions, and the statuses of those a concurrent change
+     * kept from being captured are read again.
+     */
+    public Flux<CaptureResult> captureTransactions(CaptureRequest request) {
+        TransactionProperties.Bulk bulk = transactionProperties.getBulk();
+        if (request.getIds() != null) {
+            return Flux.fromIterable(request.getIds())
+                    .distinct()
+                    .buffer(bulk.getChunkSize())
+                    .flatMapSequential(ids -> transactionRepository.findStatuses(ids)
+                                    .collectMap(Transaction::getId, Transaction::getStatus)
+                                    .flatMap(statuses -> withArchivedStatuses(ids, statuses))
+                                    .flatMapMany(statuses -> captureChunk(ids, statuses)),
+                            bulk.getConcurrency());
+        }
+        TransactionFilter filter = request.getFilter() == null ? TransactionFilter.none() : request.getFilter();
+        TransactionFilter authorized = TransactionFilter.builder()
+                .status(PaymentStatus.AUTHORIZED)
+                .paymentType(filter.getPaymentType())
+                .minAmount(filter.getMinAmount())
+                .maxAmount(filter.getMaxAmount())
+                .build();
+        return transactionRepository.streamStatuses(authorized, bulk.getChunkSize())
+                .buffer(bulk.getChunkSize())
+                .flatMapSequential(transactions -> captureChunk(
+                                transactions.stream().map(Transaction::getId).collect(Collectors.toList()),
+                                transactions.stream().collect(Collectors.toMap(Transaction::getId, Transaction::getStatus))),
+                        bulk.getConcurrency());
+    }
+
+    // Ids missing from the Transaction collection may have been archived, they are reported as captured, not unknown
+    private Mono<Map<String, PaymentStatus>> withArchivedStatuses(List<String> ids, Map<String, PaymentStatus> statuses) {
+        if (!transactionProperties.getArchive().isEnabled() || statuses.size() == ids.size()) {
+            return Mono.just(statuses);
+        }
+        List<String> missing = ids.stream().filter(id -> !statuses.containsKey(id)).collect(Collectors.toList());
+        return transactionRepository.findArchivedStatuses(missing)
+                .collectMap(Transaction::getId, Transaction::getStatus)
+                .map(archived -> {
+                    Map<String, PaymentStatus> all = new HashMap<>(statuses);
+                    all.putAll(archived);
+                    return all;
+                });
+    }
+
+    private Flux<CaptureResult> captureChunk(List<String> ids, Map<String, PaymentStatus> statuses) {
+        Set<String> authorized = ids.stream()
+                .filter(id -> statuses.get(id) == PaymentStatus.AUTHORIZED)
+                .collect(Collectors.toSet());
+        Mono<Set<String>> captured = authorized.isEmpty()
+                ? Mono.just(Collections.emptySet())
+                : transactionRepository.captureAuthorized(authorized).collect(Collectors.toSet());
+        return captured.flatMap(mine -> {
+                    Map<String, PaymentStatus> current = new HashMap<>(statuses);
+                    Set<String> changed = authorized.stream()
+                            .filter(id -> !mine.contains(id))
+                            .collect(Collectors.toSet());
+                    if (changed.isEmpty()) {
+                        return Mono.just(captureResults(ids, mine, current));
+                    }
+                    // Changed in the meantime, captured by another request as likely as not, only their status now
+                    // tells what they became
+                    return transactionRepository.findStatuses(changed)
+                            .collectMap(Transaction::getId, Transaction::getStatus)
+                            .map(reread -> {
+                                changed.forEach(id -> current.put(id, reread.get(id)));
+                                return captureResults(ids, mine, current);
+                            });
+                })
+                .flatMapIterable(results -> results)
+                .doOnNext(result -> {
+                    // Only the captures of this call, one made by another request was recorded by it
+                    if (result.getOutcome() == CaptureResult.Outcome.CAPTURED) {
+                        transactionCache.invalidate(result.getId());
+                        transactionHistory.record(result.getId(), PaymentStatus.AUTHORIZED, PaymentStatus.CAPTURED);
+                    }
+                });
+    }
+
+    private static List<CaptureResult> captureResults(List<String> ids, Set<String> captured,
+                                                      Map<String, PaymentStatus> statuses) {
+        return ids.stream()
+                .map(id -> captureResult(id, captured.contains(id), statuses.get(id)))
+                .collect(Collectors.toList());
+    }
+
+    private static CaptureResult captureResult(String id, boolean captured, PaymentStatus status) {
+        if (captured) {
+            return CaptureResult.captured(id);
+        }
+        if (status == null) {
+            return CaptureResult.notFound(id);
+        }
+        return CaptureResult.wrongState(id, status);
+    }
+
+    private void applyCreationDefaults(Transaction transaction) {
         // Apply business logic and validation if needed
         transaction.setStatus(PaymentStatus.NEW);
-        return transactionRepository.save(transaction);
+        // A version sent along would make the insert look like an update of an existing transaction
+        transaction.setVersion(null);
     }
 
 
@@ -36,40 +245,181 @@ public class TransactionService {
         return Mono.empty();
     }
 
+    private Mono<Void> amountGuard(Transaction updatedTransaction, Transaction existingTransaction) {
+        TransactionException refused = transactionValidator.checkAmountChange(updatedTransaction, existingTransaction);
+        return refused == null ? Mono.empty() : Mono.error(refused);
+    }
+
     public Mono<Transaction> updateTransaction(String transactionId, Transaction updatedTransaction) {
-        Mono<Transaction> existingTransaction = getTransactionById(transactionId)
-                .switchIfEmpty(Mono.error(TransactionException.cannotFind(transactionId)));
-
-        return existingTransaction
-                .flatMap(transaction -> paymentStatusGuard(updatedTransaction, transaction))
-                .then(existingTransaction)
-                .doOnSuccess(transaction -> {
-                    // Update the relevant fields
-                    transaction.setAmount(updatedTransaction.getAmount());
-                    transaction.setPaymentType(updatedTransaction.getPaymentType());
-                    transaction.setStatus(updatedTransaction.getStatus());
+        TransactionException invalid = transactionValidator.checkUpdate(updatedTransaction);
+        if (invalid != null) {
+            transactionMetrics.rejected(invalid);
+            return Mono.error(invalid);
+        }
+        // One round trip: the repository only writes when the stored status allows the transition and the amount
+        // still matches the stored order lines, and hands back the previous state, which the guards then use to
+        // report why a refused update was refused.
+        return transactionRepository.findAndTransition(transactionId, updatedTransaction)
+                .switchIfEmpty(Mono.defer(() -> notFoundOrConflict(transactionId, updatedTransaction.getVersion())))
+                .flatMap(previousTransaction -> paymentStatusGuard(updatedTransaction, previousTransaction)
+                        .then(amountGuard(updatedTransaction, previousTransaction))
+                        .thenReturn(previousTransaction))
+                .doOnNext(transaction -> {
+                    if (updatedTransaction.getStatus() != null && updatedTransaction.getStatus() != transaction.getStatus()) {
+                        transactionHistory.record(transactionId, transaction.getStatus(), updatedTransaction.getStatus());
+                    }
+                    // Mirror the fields written by the repository
+                    if (updatedTransaction.getAmount() != 0) {
+                        transaction.setAmount(updatedTransaction.getAmount());
+                    }
+                    if (updatedTransaction.getPaymentType() != null) {
+                        transaction.setPaymentType(updatedTransaction.getPaymentType());
+                    }
+                    if (updatedTransaction.getStatus() != null) {
+                        transaction.setStatus(updatedTransaction.getStatus());
+                    }
+                    transaction.setVersion(transaction.getVersion() == null ? 1 : transaction.getVersion() + 1);
+                    transactionCache.invalidate(transactionId);
                 })
-                .flatMap(transactionRepository::save);
+                .doOnError(OptimisticLockingFailureException.class, error -> transactionMetrics.conflicted(TransactionMetrics.Write.UPDATE))
+                .doOnError(transactionMetrics::rejected);
+    }
+
+    private Mono<Transaction> notFoundOrConflict(String transactionId, Long expectedVersion) {
+        // An archived transaction is captured, the guard refuses the update as it would have in the Transaction collection
+        return findArchived(transactionId).switchIfEmpty(Mono.defer(() -> {
+            if (expectedVersion == null) {
+                return Mono.error(() -> TransactionException.cannotFind(transactionId));
+            }
+            // Retrying can't help here, the client has to read the transaction again and decide
+            return transactionRepository.existsById(transactionId)
+                    .flatMap(exists -> Mono.error(exists
+                            ? conflict(transactionId)
+                            : TransactionException.cannotFind(transactionId)));
+        }));
+    }
+
+    private static OptimisticLockingFailureException conflict(String transactionId) {
+        return new TransactionConflictException(transactionId);
+    }
+
+    private Retry retryOnConflict(TransactionMetrics.Write write) {
+        TransactionProperties.Conflicts conflicts = transactionProperties.getConflicts();
+        return Retry.backoff(conflicts.getMaxRetries(), conflicts.getMinBackoff())
+                .maxBackoff(conflicts.getMaxBackoff())
+                .jitter(conflicts.getJitter())
+                .filter(OptimisticLockingFailureException.class::isInstance)
+                .doBeforeRetry(signal -> transactionMetrics.retried(write))
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure());
     }
 
 
     public Mono<Transaction> getTransactionById(String transactionId) {
-        return transactionRepository.findById(transactionId);
+        return transactionCache.get(transactionId, id -> transactionRepository.findById(id)
+                .switchIfEmpty(Mono.defer(() -> findArchived(id))));
+    }
+
+    // Served from the cache when it has the whole transaction, a partial one is never cached
+    public Mono<TransactionSummary> getTransactionSummary(String transactionId) {
+        return transactionCache.peek(transactionId)
+                .switchIfEmpty(Mono.defer(() -> transactionRepository.findSummaryById(transactionId)))
+                .switchIfEmpty(Mono.defer(() -> findArchived(transactionId)))
+                .map(TransactionSummary::of);
+    }
+
+    public Flux<OrderLine> getOrderLines(String transactionId) {
+        return transactionCache.peek(transactionId)
+                .switchIfEmpty(Mono.defer(() -> transactionRepository.findOrderLines(transactionId)))
+                .switchIfEmpty(Mono.defer(() -> findArchived(transactionId)))
+                .switchIfEmpty(Mono.error(() -> TransactionException.cannotFind(transactionId)))
+                .flatMapIterable(transaction -> transaction.getOrderLines() == null
+                        ? Collections.emptyList()
+                        : transaction.getOrderLines());
+    }
+
+    /**
+     * Second tier of the reads by id: the Transaction collection is read first, and archiving writes a transaction to
+     * the archive before deleting it from there, so a transaction being moved is always found in one of them.
+     */
+    private Mono<Transaction> findArchived(String transactionId) {
+        return transactionProperties.getArchive().isEnabled()
+                ? transactionRepository.findArchived(transactionId)
+                : Mono.empty();
+    }
+
+    public Flux<Transaction> getAllTransactions(TransactionFilter filter, String after, Integer limit) {
+        return transactionRepository.findPage(filter, after, pageSize(limit));
     }
 
-    public Flux<Transaction> getAllTransactions() {
-        return transactionRepository.findAll();
+    public Flux<TransactionSummary> getTransactionSummaries(TransactionFilter filter, String after, Integer limit) {
+        return transactionRepository.findSummaryPage(filter, after, pageSize(limit))
+                .map(TransactionSummary::of);
+    }
+
+    private int pageSize(Integer limit) {
+        TransactionProperties.Pagination pagination = transactionProperties.getPagination();
+        return limit == null ? pagination.getDefaultLimit() : Math.max(1, Math.min(limit, pagination.getMaxLimit()));
+    }
+
+    public Flux<Transaction> streamAllTransactions(TransactionFilter filter) {
+        int batchSize = transactionProperties.getPagination().getStreamBatchSize();
+        // Keep the demand sent upstream to one cursor batch at a time, whatever the subscriber asks for
+        return transactionRepository.streamAll(filter, batchSize)
+                .limitRate(batchSize);
+    }
+
+    public Flux<TransactionSummary> streamTransactionSummaries(TransactionFilter filter) {
+        int batchSize = transactionProperties.getPagination().getStreamBatchSize();
+        return transactionRepository.streamSummaries(filter, batchSize)
+                .limitRate(batchSize)
+                .map(TransactionSummary::of);
+    }
+
+    public Flux<TransactionEvent> streamEvents(Collection<PaymentStatus> statuses, String lastEventId) {
+        TransactionProperties.Events properties = transactionProperties.getEvents();
+        TransactionProperties.Events.Overflow policy = properties.getOverflow();
+        Flux<TransactionEvent> events = transactionRepository.watch(statuses, lastEventId);
+        if (policy == TransactionProperties.Events.Overflow.DROP) {
+            return events.onBackpressureBuffer(properties.getBufferSize(),
+                    dropped -> transactionMetrics.eventsOverflowed(policy), BufferOverflowStrategy.DROP_OLDEST);
+        }
+        // Completing rather than failing lets the client reconnect from the last event it actually received
+        return events.onBackpressureBuffer(properties.getBufferSize(),
+                        dropped -> transactionMetrics.eventsOverflowed(policy), BufferOverflowStrategy.ERROR)
+                .onErrorResume(Exceptions::isOverflow, error -> Flux.empty());
+    }
+
+    public Flux<TransactionTransition> getHistory(String transactionId) {
+        return transactionHistory.find(transactionId);
+    }
+
+    public Flux<TransactionTotals> getTotals(TransactionFilter filter, StatsBucket bucket) {
+        return transactionRepository.aggregateTotals(filter, bucket);
+    }
+
+    public Flux<ProductRevenue> getRevenueByProduct(TransactionFilter filter, StatsBucket bucket) {
+        return transactionRepository.aggregateRevenueByProduct(filter, bucket);
     }
 
     public Mono<Void> deleteTransaction(String transactionId) {
-        return getTransactionById(transactionId)
-                .switchIfEmpty(Mono.error(TransactionException.cannotFind(transactionId)))
+        return transactionCache.getCaptured(transactionId)
+                .switchIfEmpty(Mono.defer(() -> transactionRepository.findById(transactionId)))
+                .switchIfEmpty(Mono.defer(() -> findArchived(transactionId)))
+                .switchIfEmpty(Mono.error(() -> TransactionException.cannotFind(transactionId)))
                 .flatMap(existingTransaction -> {
                     if (existingTransaction.getStatus() == PaymentStatus.CAPTURED) {
                         return Mono.error(TransactionException.cannotDeleteCaptured());
                     }
-                    return transactionRepository.deleteById(transactionId);
-                });
+                    // Only deleted as it was read: one captured in the meantime is read, and refused, again
+                    return transactionRepository.deleteUnchanged(transactionId, existingTransaction.getVersion())
+                            .filter(Boolean::booleanValue)
+                            .switchIfEmpty(Mono.error(() -> conflict(transactionId)))
+                            .doOnSuccess(deleted -> transactionCache.invalidate(transactionId));
+                })
+                .doOnError(OptimisticLockingFailureException.class, error -> transactionMetrics.conflicted(TransactionMetrics.Write.DELETE))
+                .retryWhen(retryOnConflict(TransactionMetrics.Write.DELETE))
+                .doOnError(transactionMetrics::rejected)
+                .then();
     }
 
 
@@ -0,0 +1,181 @@
+package com.exercice.exercice.service;
+
+import com.exercice.exercice.config.CompactStorage;
+import com.exercice.exercice.config.TransactionProperties;
+import com.exercice.exercice.exceptions.TransactionException;
+import com.exercice.exercice.model.OrderLine;
+import com.exercice.exercice.model.PaymentType;
+import com.exercice.exercice.model.Transaction;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks transactions against their order lines and the rules of their payment type. The rules are compiled once,
+ * into arrays indexed by payment type, and money is compared as whole minor units in longs: exact to the cent, and
+ * nothing is allocated unless the transaction is refused.
+ */
+@Component
+public class TransactionValidator {
+
+    private static final int MINOR_UNITS = CompactStorage.MINOR_UNITS;
+    // Digits after the decimal point of an amount, 2 for cents
+    private static final int DECIMALS = BigDecimal.valueOf(MINOR_UNITS).precision() - 1;
+    // How far, in minor units, an amount may be from a whole number of them and still be one, as doubles can't hold
+    // most decimal amounts exactly
+    private static final double ROUNDING_NOISE = 1e-4;
+
+    private final boolean amountMatchesOrderLines;
+    private final long[] minAmount;
+    private final long[] maxAmount;
+    private final int[] maxOrderLines;
+    private final boolean[] orderLinesRequired;
+
+    public TransactionValidator(TransactionProperties transactionProperties) {
+        TransactionProperties.Validation validation = transactionProperties.getValidation();
+        int types = PaymentType.values().length;
+        this.amountMatchesOrderLines = validation.isAmountMatchesOrderLines();
+        this.minAmount = new long[types];
+        this.maxAmount = new long[types];
+        this.maxOrderLines = new int[types];
+        this.orderLinesRequired = new boolean[types];
+        Arrays.fill(minAmount, Long.MIN_VALUE);
+        Arrays.fill(maxAmount, Long.MAX_VALUE);
+        for (Map.Entry<PaymentType, TransactionProperties.Validation.Rule> entry : validation.getRules().entrySet()) {
+            int type = entry.getKey().ordinal();
+            TransactionProperties.Validation.Rule rule = entry.getValue();
+            if (rule.getMinAmount() != null) {
+                minAmount[type] = minorUnits(rule.getMinAmount(), entry.getKey(), "min-amount");
+            }
+            if (rule.getMaxAmount() != null) {
+                maxAmount[type] = minorUnits(rule.getMaxAmount(), entry.getKey(), "max-amount");
+            }
+            maxOrderLines[type] = rule.getMaxOrderLines();
+            orderLinesRequired[type] = rule.isOrderLinesRequired();
+        }
+    }
+
+    /**
+     * Gives a new transaction with an amount of 0 the total of its order lines, then checks it.
+     *
+     * @return why the transaction is refused, or null when it is valid.
+     */
+    public TransactionException checkNew(Transaction transaction) {
+        List<OrderLine> lines = transaction.getOrderLines();
+        int count = lines == null ? 0 : lines.size();
+        int type = transaction.getPaymentType() == null ? -1 : transaction.getPaymentType().ordinal();
+        if (type >= 0 && count == 0 && orderLinesRequired[type]) {
+            return TransactionException.invalid("A " + transaction.getPaymentType().name() + " transaction needs order lines");
+        }
+        if (type >= 0 && maxOrderLines[type] > 0 && count > maxOrderLines[type]) {
+            return TransactionException.invalid("A " + transaction.getPaymentType().name() + " transaction has at most "
+                    + maxOrderLines[type] + " order lines, not " + count);
+        }
+
+        // Indexed rather than iterated, so that no iterator is allocated
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            OrderLine line = lines.get(i);
+            if (line.getQuantity() <= 0) {
+                return TransactionException.invalid("The quantity of order line " + i + " must be positive, not " + line.getQuantity());
+            }
+            if (!(line.getPrice() >= 0) || Float.isInfinite(line.getPrice())) {
+                return TransactionException.invalid("The price of order line " + i + " must be zero or more, not " + line.getPrice());
+            }
+            // Floats hold prices to the cent up to 131072, past that the price is already rounded when it is read
+            long price = Math.round((double) line.getPrice() * MINOR_UNITS);
+            try {
+                total = Math.addExact(total, Math.multiplyExact(price, line.getQuantity()));
+            } catch (ArithmeticException e) {
+                return TransactionException.invalid("The order lines add up to more than an amount can hold");
+            }
+        }
+
+        if (amountMatchesOrderLines && count > 0 && transaction.getAmount() == 0) {
+            transaction.setAmount(total / (double) MINOR_UNITS);
+        }
+        if (!isWholeMinorUnits(transaction.getAmount())) {
+            return TransactionException.invalid("The amount " + transaction.getAmount() + " has more than " + DECIMALS + " decimals");
+        }
+        long amount = Math.round(transaction.getAmount() * MINOR_UNITS);
+        if (amountMatchesOrderLines && count > 0 && amount != total) {
+            return TransactionException.invalid("The amount " + format(amount) + " isn't the " + format(total)
+                    + " the order lines add up to");
+        }
+        return checkLimits(transaction.getPaymentType(), type, amount);
+    }
+
+    /**
+     * Checks what an update writes: the amount, against the limits of the payment type when the update states it.
+     * An amount of 0 isn't stated, the update keeps the stored one. Updates don't write order lines, the stored ones
+     * are checked by {@link #checkAmountChange} once they are read.
+     *
+     * @return why the update is refused, or null when it is valid.
+     */
+    public TransactionException checkUpdate(Transaction update) {
+        if (update.getAmount() == 0) {
+            return null;
+        }
+        if (!isWholeMinorUnits(update.getAmount())) {
+            return TransactionException.invalid("The amount " + update.getAmount() + " has more than " + DECIMALS + " decimals");
+        }
+        int type = update.getPaymentType() == null ? -1 : update.getPaymentType().ordinal();
+        return checkLimits(update.getPaymentType(), type, Math.round(update.getAmount() * MINOR_UNITS));
+    }
+
+    /**
+     * Checks the amount of an update against the transaction it applied to: order lines never change, so a
+     * transaction that has some keeps the amount they add up to. The repository refuses to write such an update.
+     *
+     * @return why the update is refused, or null when it is valid.
+     */
+    public TransactionException checkAmountChange(Transaction update, Transaction previous) {
+        List<OrderLine> lines = previous.getOrderLines();
+        if (!amountMatchesOrderLines || update.getAmount() == 0 || lines == null || lines.isEmpty()) {
+            return null;
+        }
+        long amount = Math.round(update.getAmount() * MINOR_UNITS);
+        long stored = Math.round(previous.getAmount() * MINOR_UNITS);
+        if (amount != stored) {
+            return TransactionException.invalid("The amount of a transaction with order lines stays the " + format(stored)
+                    + " they add up to, it can't become " + format(amount));
+        }
+        return null;
+    }
+
+    private TransactionException checkLimits(PaymentType paymentType, int type, long amount) {
+        if (type < 0) {
+            return null;
+        }
+        if (amount < minAmount[type]) {
+            return TransactionException.invalid("A " + paymentType.name() + " transaction is of at least " + format(minAmount[type])
+                    + ", not " + format(amount));
+        }
+        if (amount > maxAmount[type]) {
+            return TransactionException.invalid("A " + paymentType.name() + " transaction is of at most " + format(maxAmount[type])
+                    + ", not " + format(amount));
+        }
+        return null;
+    }
+
+    private static boolean isWholeMinorUnits(double amount) {
+        double units = amount * MINOR_UNITS;
+        return Double.isFinite(units) && Math.abs(units - Math.rint(units)) <= ROUNDING_NOISE;
+    }
+
+    private static long minorUnits(BigDecimal amount, PaymentType paymentType, String property) {
+        try {
+            return amount.multiply(BigDecimal.valueOf(MINOR_UNITS)).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalStateException("transactions.validation.rules." + paymentType.name() + "." + property
+                    + " must be a whole number of minor units, not " + amount.toPlainString(), e);
+        }
+    }
+
+    private static String format(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, DECIMALS).toPlainString();
+    }
+}
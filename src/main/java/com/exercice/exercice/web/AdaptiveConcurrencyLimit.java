@@ -0,0 +1,134 @@
+package com.exercice.exercice.web;
+
+import com.exercice.exercice.config.TransactionProperties;
+import com.exercice.exercice.dao.ITransactionRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.repository.core.support.RepositoryMethodInvocationListener;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Limit on the requests in flight, following the latency of the calls to {@link ITransactionRepository}. Once per
+ * window, the average latency of the window is compared with its long-term average: while it stays within the
+ * tolerance the limit grows by its square root, beyond it the limit shrinks in proportion, down to half.
+ * <p>
+ * The limit only grows while at least half of it is in use, so a quiet period can't inflate it before a spike.
+ */
+@Component
+public class AdaptiveConcurrencyLimit implements RepositoryMethodInvocationListener, MeterBinder {
+
+    // Fewer calls in a window are too few to tell a trend, the window is then extended
+    private static final int MIN_SAMPLES = 10;
+    // Windows the long-term latency is averaged over
+    private static final int LONG_WINDOWS = 100;
+
+    private final TransactionProperties.Concurrency properties;
+    private final LongSupplier nanoClock;
+    private final long windowNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final LongAdder samples = new LongAdder();
+
+    private volatile int limit;
+    private volatile long windowStart;
+    // Guarded by this
+    private double estimatedLimit;
+    private double longLatency;
+
+    @Autowired
+    public AdaptiveConcurrencyLimit(TransactionProperties transactionProperties) {
+        this(transactionProperties, System::nanoTime);
+    }
+
+    public AdaptiveConcurrencyLimit(TransactionProperties transactionProperties, LongSupplier nanoClock) {
+        this.properties = transactionProperties.getConcurrency();
+        this.nanoClock = nanoClock;
+        this.windowNanos = properties.getWindow().toNanos();
+        this.estimatedLimit = properties.getInitialLimit();
+        this.limit = properties.getInitialLimit();
+        this.windowStart = nanoClock.getAsLong();
+    }
+
+    /**
+     * @return false when the limit is reached, otherwise the caller must {@link #release()} once done.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                peakInFlight.accumulateAndGet(current + 1, Math::max);
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public void afterInvocation(RepositoryMethodInvocation invocation) {
+        if (ITransactionRepository.class.isAssignableFrom(invocation.getRepositoryInterface())) {
+            record(invocation.getDuration(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    public void record(long nanos) {
+        latencyNanos.add(nanos);
+        samples.increment();
+        long now = nanoClock.getAsLong();
+        if (now - windowStart >= windowNanos && samples.sum() >= MIN_SAMPLES) {
+            update(now);
+        }
+    }
+
+    private synchronized void update(long now) {
+        if (now - windowStart < windowNanos) {
+            // Another thread closed this window already
+            return;
+        }
+        windowStart = now;
+        long count = samples.sumThenReset();
+        double latency = (double) latencyNanos.sumThenReset() / Math.max(1, count);
+        int peak = peakInFlight.getAndSet(inFlight.get());
+
+        longLatency = longLatency == 0 ? latency : longLatency + (latency - longLatency) / LONG_WINDOWS;
+        if (longLatency > 2 * latency) {
+            // Back to normal after an overload: don't wait for the long-term average to forget it
+            longLatency *= 0.95;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, properties.getTolerance() * longLatency / latency));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        if (newLimit > estimatedLimit && peak < estimatedLimit / 2) {
+            newLimit = estimatedLimit;
+        }
+        estimatedLimit = Math.max(properties.getMinLimit(), Math.min(properties.getMaxLimit(),
+                estimatedLimit * (1 - properties.getSmoothing()) + newLimit * properties.getSmoothing()));
+        limit = (int) estimatedLimit;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("transactions.concurrency.limit", this, AdaptiveConcurrencyLimit::getLimit)
+                .description("Requests in flight allowed by the adaptive limit")
+                .register(registry);
+        Gauge.builder("transactions.concurrency.in.flight", inFlight, AtomicInteger::get)
+                .description("Requests in flight counted against the adaptive limit")
+                .register(registry);
+    }
+}
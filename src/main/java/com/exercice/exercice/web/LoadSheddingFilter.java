@@ -0,0 +1,116 @@
+package com.exercice.exercice.web;
+
+import com.exercice.exercice.config.MetricsConfiguration;
+import com.exercice.exercice.config.TransactionProperties;
+import com.exercice.exercice.service.TransactionMetrics;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns requests away before they reach the controllers, rather than letting them queue up on MongoDB: 429 once
+ * the client or the endpoint has spent its token bucket, 503 once the {@link AdaptiveConcurrencyLimit} is reached.
+ * Both answer right away, with a Retry-After. The rate limit is off by default, see {@link TransactionProperties.RateLimit}.
+ * <p>
+ * Ordered after the metrics filter, so shed requests still show up in http.server.requests.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class LoadSheddingFilter implements WebFilter {
+
+    private static final String TRANSACTIONS = "/transactions";
+    // Event streams stay open for as long as the client listens, they aren't work in flight
+    private static final String EVENTS = "/transactions/events";
+
+    private final TransactionProperties.RateLimit rateLimit;
+    private final TransactionProperties.Concurrency concurrency;
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final TransactionMetrics transactionMetrics;
+    private final Cache<String, TokenBucket> clients;
+    private final Map<String, TokenBucket> endpoints = new HashMap<>();
+    private final Set<String> trustedProxies;
+
+    public LoadSheddingFilter(TransactionProperties transactionProperties, AdaptiveConcurrencyLimit concurrencyLimit,
+                              TransactionMetrics transactionMetrics) {
+        this.rateLimit = transactionProperties.getRateLimit();
+        this.concurrency = transactionProperties.getConcurrency();
+        this.concurrencyLimit = concurrencyLimit;
+        this.transactionMetrics = transactionMetrics;
+        this.clients = Caffeine.newBuilder()
+                .maximumSize(rateLimit.getMaximumClients())
+                .build();
+        this.trustedProxies = new HashSet<>(rateLimit.getTrustedProxies());
+        long now = System.nanoTime();
+        rateLimit.getEndpoints().forEach((endpoint, bucket) -> endpoints.put(endpoint, new TokenBucket(bucket, now)));
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        String path = request.getPath().pathWithinApplication().value();
+        if (!path.startsWith(TRANSACTIONS) || path.startsWith(EVENTS)) {
+            return chain.filter(exchange);
+        }
+
+        if (rateLimit.isEnabled()) {
+            long now = System.nanoTime();
+            long wait = clients.get(client(request), client -> new TokenBucket(rateLimit.getPerClient(), now)).tryTake(now);
+            if (wait > 0) {
+                return shed(exchange.getResponse(), HttpStatus.TOO_MANY_REQUESTS, wait, TransactionMetrics.Shed.CLIENT_RATE);
+            }
+            TokenBucket endpoint = endpoints.get(request.getMethodValue() + " " + MetricsConfiguration.uriTemplate(path));
+            wait = endpoint == null ? 0 : endpoint.tryTake(now);
+            if (wait > 0) {
+                return shed(exchange.getResponse(), HttpStatus.TOO_MANY_REQUESTS, wait, TransactionMetrics.Shed.ENDPOINT_RATE);
+            }
+        }
+
+        if (!concurrency.isEnabled()) {
+            return chain.filter(exchange);
+        }
+        if (!concurrencyLimit.tryAcquire()) {
+            return shed(exchange.getResponse(), HttpStatus.SERVICE_UNAVAILABLE, concurrency.getRetryAfter().toNanos(),
+                    TransactionMetrics.Shed.CONCURRENCY);
+        }
+        return chain.filter(exchange)
+                .doFinally(signal -> concurrencyLimit.release());
+    }
+
+    private String client(ServerHttpRequest request) {
+        InetSocketAddress address = request.getRemoteAddress();
+        String remote = address == null ? "" : address.getHostString();
+        // Any caller can set the header, so it only tells clients apart behind a proxy that sets it for them
+        if (trustedProxies.contains(remote)) {
+            String client = request.getHeaders().getFirst(rateLimit.getClientHeader());
+            if (client != null) {
+                return client;
+            }
+        }
+        return remote;
+    }
+
+    private Mono<Void> shed(ServerHttpResponse response, HttpStatus status, long waitNanos, TransactionMetrics.Shed reason) {
+        transactionMetrics.shed(reason);
+        response.setStatusCode(status);
+        long seconds = Math.max(1, (long) Math.ceil(waitNanos / (double) TimeUnit.SECONDS.toNanos(1)));
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(seconds));
+        return response.setComplete();
+    }
+}
@@ -0,0 +1,34 @@
+package com.exercice.exercice.web;
+
+import com.exercice.exercice.config.TransactionProperties;
+
+/**
+ * Token bucket refilled lazily from the elapsed time, so an idle bucket costs nothing.
+ */
+final class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long refilledAt;
+
+    TokenBucket(TransactionProperties.RateLimit.Bucket bucket, long now) {
+        this.capacity = bucket.getCapacity();
+        this.tokensPerNano = bucket.getRefillPerSecond() / 1e9;
+        this.tokens = capacity;
+        this.refilledAt = now;
+    }
+
+    /**
+     * @return 0 when a token was taken, otherwise the nanoseconds until one is available.
+     */
+    synchronized long tryTake(long now) {
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return tokensPerNano > 0 ? (long) Math.ceil((1 - tokens) / tokensPerNano) : Long.MAX_VALUE;
+    }
+}
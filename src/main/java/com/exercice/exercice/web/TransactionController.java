@@ -1,38 +1,80 @@
 package com.exercice.exercice.web;
 
 import com.exercice.exercice.exceptions.TransactionException;
+import com.exercice.exercice.model.BulkItemResult;
+import com.exercice.exercice.model.CaptureRequest;
+import com.exercice.exercice.model.CaptureResult;
+import com.exercice.exercice.model.OrderLine;
+import com.exercice.exercice.model.PaymentStatus;
 import com.exercice.exercice.model.PaymentType;
 import com.exercice.exercice.model.Transaction;
+import com.exercice.exercice.model.TransactionEvent;
+import com.exercice.exercice.model.TransactionFilter;
+import com.exercice.exercice.model.TransactionSummary;
+import com.exercice.exercice.model.TransactionTransition;
+import com.exercice.exercice.service.IdempotencyService;
 import com.exercice.exercice.service.TransactionService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Collections;
+import java.util.Set;
+
 @RestController
 @RequestMapping("/transactions")
 public class TransactionController {
 
+        static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
         private final TransactionService transactionService;
+        private final IdempotencyService idempotencyService;
 
         @Autowired
-        public TransactionController(TransactionService transactionService) {
+        public TransactionController(TransactionService transactionService, IdempotencyService idempotencyService) {
             this.transactionService = transactionService;
+            this.idempotencyService = idempotencyService;
         }
 
-        // Create a new transaction
+        // Create a new transaction, a retry with the same Idempotency-Key gets the first response back
         @PostMapping
-        public ResponseEntity<Mono<Transaction>> createTransaction(@RequestBody Transaction transaction) {
-            Mono<Transaction> createdTransaction = transactionService.createTransaction(transaction);
+        public ResponseEntity<Mono<Transaction>> createTransaction(@RequestBody Transaction transaction,
+                                                                   @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+            Mono<Transaction> createdTransaction = idempotencyService.execute("POST /transactions", idempotencyKey, transaction,
+                    () -> transactionService.createTransaction(transaction));
             return ResponseEntity.status(HttpStatus.CREATED).body(createdTransaction);
         }
 
-        // Update an existing transaction
+        // Create many transactions from a JSON array or an NDJSON stream, one result is streamed back per item
+        @PostMapping(value = "/_bulk",
+                consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE},
+                produces = MediaType.APPLICATION_NDJSON_VALUE)
+        public Flux<BulkItemResult> createTransactions(@RequestBody Flux<Transaction> transactions) {
+            return transactionService.createTransactions(transactions);
+        }
+
+        // Capture many authorized transactions, listed by id or selected by a filter, one outcome is streamed back per transaction
+        @PostMapping(value = "/_capture", produces = MediaType.APPLICATION_NDJSON_VALUE)
+        public Flux<CaptureResult> captureTransactions(@RequestBody CaptureRequest request) {
+            if (request.getIds() == null && request.getFilter() == null) {
+                return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Either ids or a filter is required"));
+            }
+            return transactionService.captureTransactions(request);
+        }
+
+        // Update an existing transaction, a retry with the same Idempotency-Key gets the first response back.
+        // With a version in the body, the update is refused with 409 if the transaction is no longer at that version
         @PutMapping("/{transactionId}")
-        public ResponseEntity<Mono<Transaction>> updateTransaction(@PathVariable String transactionId, @RequestBody Transaction transaction) {
-            Mono<Transaction> updatedTransaction = transactionService.updateTransaction(transactionId, transaction);
+        public ResponseEntity<Mono<Transaction>> updateTransaction(@PathVariable String transactionId, @RequestBody Transaction transaction,
+                                                                   @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+            Mono<Transaction> updatedTransaction = idempotencyService.execute("PUT /transactions/" + transactionId, idempotencyKey, transaction,
+                    () -> transactionService.updateTransaction(transactionId, transaction));
             return ResponseEntity.ok(updatedTransaction);
         }
 
@@ -41,28 +83,77 @@ public class TransactionController {
         public Mono<ResponseEntity<Transaction>> getTransactionById(@PathVariable String transactionId) {
             return transactionService.getTransactionById(transactionId)
                     .map(ResponseEntity::ok)
-                    .defaultIfEmpty(ResponseEntity.notFound().build());
+                    .switchIfEmpty(Mono.error(() -> TransactionException.cannotFind(transactionId)));
+        }
+
+        // Get a transaction by ID without its order lines
+        @GetMapping(value = "/{transactionId}", params = "view=summary")
+        public Mono<ResponseEntity<TransactionSummary>> getTransactionSummary(@PathVariable String transactionId) {
+            return transactionService.getTransactionSummary(transactionId)
+                    .map(ResponseEntity::ok)
+                    .switchIfEmpty(Mono.error(() -> TransactionException.cannotFind(transactionId)));
+        }
+
+        // Order lines of a transaction, for clients that listed it with view=summary
+        @GetMapping("/{transactionId}/orderLines")
+        public Flux<OrderLine> getOrderLines(@PathVariable String transactionId) {
+            return transactionService.getOrderLines(transactionId);
         }
 
-        // Get all transactions
+        // Status transitions of a transaction, oldest first. They are written in the background, so the latest
+        // ones show up after at most transactions.history.flush-interval
+        @GetMapping("/{transactionId}/history")
+        public Flux<TransactionTransition> getTransactionHistory(@PathVariable String transactionId) {
+            return transactionService.getHistory(transactionId);
+        }
+
+        // Get a page of transactions, optionally filtered by status, paymentType, minAmount and maxAmount.
+        // The id of the last one is the 'after' of the next page
         @GetMapping
-        public ResponseEntity<Flux<Transaction>> getAllTransactions() {
-            Flux<Transaction> transactions = transactionService.getAllTransactions();
+        public ResponseEntity<Flux<Transaction>> getAllTransactions(TransactionFilter filter,
+                                                                    @RequestParam(required = false) String after,
+                                                                    @RequestParam(required = false) Integer limit) {
+            Flux<Transaction> transactions = transactionService.getAllTransactions(filter, after, limit);
             return ResponseEntity.ok(transactions);
         }
 
-        // Delete a transaction by ID
+        // Same page without the order lines, which are then neither read from MongoDB nor serialized
+        @GetMapping(params = "view=summary")
+        public ResponseEntity<Flux<TransactionSummary>> getTransactionSummaries(TransactionFilter filter,
+                                                                                @RequestParam(required = false) String after,
+                                                                                @RequestParam(required = false) Integer limit) {
+            return ResponseEntity.ok(transactionService.getTransactionSummaries(filter, after, limit));
+        }
+
+        // Stream all transactions matching the same filters as newline delimited JSON
+        @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+        public Flux<Transaction> streamAllTransactions(TransactionFilter filter) {
+            return transactionService.streamAllTransactions(filter);
+        }
+
+        // Same stream without the order lines
+        @GetMapping(params = "view=summary", produces = MediaType.APPLICATION_NDJSON_VALUE)
+        public Flux<TransactionSummary> streamTransactionSummaries(TransactionFilter filter) {
+            return transactionService.streamTransactionSummaries(filter);
+        }
+
+        // Push creations, updates, deletions and moves to the archive as they happen, optionally only for some statuses.
+        // Reconnecting with Last-Event-ID resumes right after the last event received.
+        @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+        public Flux<ServerSentEvent<TransactionEvent>> streamEvents(@RequestParam(value = "status", required = false) Set<PaymentStatus> statuses,
+                                                                    @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+            return transactionService.streamEvents(statuses == null ? Collections.emptySet() : statuses, lastEventId)
+                    .map(event -> ServerSentEvent.builder(event)
+                            .id(event.getId())
+                            .event(event.getType().name())
+                            .build());
+        }
+
+        // Delete a transaction by ID, 409 if it kept changing while being deleted
         @DeleteMapping("/{transactionId}")
         public Mono<ResponseEntity<Void>> deleteTransaction(@PathVariable String transactionId) {
             return transactionService.deleteTransaction(transactionId)
-                    .thenReturn(ResponseEntity.noContent().<Void>build())
-                    .onErrorResume(error -> {
-                        error.printStackTrace();
-                        if (error instanceof TransactionException) {
-                            return Mono.just(ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).build());
-                        }
-                        return Mono.just(ResponseEntity.notFound().build());
-                    });
+                    .thenReturn(ResponseEntity.noContent().<Void>build());
         }
 }
 
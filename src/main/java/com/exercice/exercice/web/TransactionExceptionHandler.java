@@ -0,0 +1,35 @@
+package com.exercice.exercice.web;
+
+import com.exercice.exercice.exceptions.TransactionException;
+import com.exercice.exercice.model.ErrorResponse;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * Answers the refusals of every endpoint the same way: 404 for an unknown transaction; 409 for one changed by another
+ * request, an id already taken or an Idempotency-Key still in use; 422 for a transition its status doesn't allow, a
+ * transaction failing validation or an Idempotency-Key reused with another body. They are expected, so nothing is
+ * logged.
+ */
+@RestControllerAdvice
+public class TransactionExceptionHandler {
+
+    static final String CONFLICT = "CONFLICT";
+
+    @ExceptionHandler(TransactionException.class)
+    public ResponseEntity<ErrorResponse> handleRefusal(TransactionException error) {
+        HttpStatus status = error.getReason() == TransactionException.Reason.NOT_FOUND ? HttpStatus.NOT_FOUND
+                : error.getReason() == TransactionException.Reason.KEY_IN_PROGRESS
+                || error.getReason() == TransactionException.Reason.DUPLICATE ? HttpStatus.CONFLICT
+                : HttpStatus.UNPROCESSABLE_ENTITY;
+        return ResponseEntity.status(status).body(new ErrorResponse(error.getReason().name(), error.getMessage()));
+    }
+
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<ErrorResponse> handleConflict(OptimisticLockingFailureException error) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(new ErrorResponse(CONFLICT, error.getMessage()));
+    }
+}
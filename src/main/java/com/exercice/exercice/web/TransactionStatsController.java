@@ -0,0 +1,35 @@
+package com.exercice.exercice.web;
+
+import com.exercice.exercice.model.ProductRevenue;
+import com.exercice.exercice.model.StatsBucket;
+import com.exercice.exercice.model.TransactionFilter;
+import com.exercice.exercice.model.TransactionTotals;
+import com.exercice.exercice.service.TransactionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+
+@RestController
+@RequestMapping(value = "/transactions/stats", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+public class TransactionStatsController {
+
+        private final TransactionService transactionService;
+
+        @Autowired
+        public TransactionStatsController(TransactionService transactionService) {
+            this.transactionService = transactionService;
+        }
+
+        // Count and total amount per payment type and status, optionally per HOUR, DAY or MONTH bucket
+        @GetMapping("/totals")
+        public Flux<TransactionTotals> getTotals(TransactionFilter filter, @RequestParam(required = false) StatsBucket bucket) {
+            return transactionService.getTotals(filter, bucket);
+        }
+
+        // Quantity sold and revenue per product, optionally per HOUR, DAY or MONTH bucket
+        @GetMapping("/revenue-by-product")
+        public Flux<ProductRevenue> getRevenueByProduct(TransactionFilter filter, @RequestParam(required = false) StatsBucket bucket) {
+            return transactionService.getRevenueByProduct(filter, bucket);
+        }
+}
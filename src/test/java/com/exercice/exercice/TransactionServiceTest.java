@@ -1,15 +1,71 @@
 package com.exercice.exercice;
 
+import com.exercice.exercice.config.CompactFieldNamingStrategy;
+import com.exercice.exercice.config.CompactStorage;
+import com.exercice.exercice.config.ConnectionPoolWaitListener;
+import com.exercice.exercice.config.MetricsConfiguration;
+import com.exercice.exercice.config.MongoClientConfiguration;
+import com.exercice.exercice.config.MongoStorageConfiguration;
+import com.exercice.exercice.config.TransactionLayoutMigration;
+import com.exercice.exercice.config.TransactionProperties;
+import com.exercice.exercice.dao.IIdempotencyRecordRepository;
+import com.exercice.exercice.dao.ITransactionHistoryRepository;
 import com.exercice.exercice.dao.ITransactionRepository;
+import com.exercice.exercice.dao.ITransactionRepositoryCustomImpl;
 import com.exercice.exercice.exceptions.TransactionException;
+import com.exercice.exercice.model.BulkItemResult;
+import com.exercice.exercice.model.CaptureRequest;
+import com.exercice.exercice.model.CaptureResult;
+import com.exercice.exercice.model.IdempotencyRecord;
 import com.exercice.exercice.model.OrderLine;
 import com.exercice.exercice.model.PaymentStatus;
 import com.exercice.exercice.model.PaymentType;
+import com.exercice.exercice.model.ProductRevenue;
+import com.exercice.exercice.model.StatsBucket;
+import com.exercice.exercice.model.TransactionEvent;
 import com.exercice.exercice.model.Transaction;
+import com.exercice.exercice.model.TransactionFilter;
+import com.exercice.exercice.model.TransactionTotals;
+import com.exercice.exercice.model.TransactionTransition;
+import com.exercice.exercice.service.IdempotencyService;
+import com.exercice.exercice.service.TransactionArchiver;
+import com.exercice.exercice.service.TransactionCache;
+import com.exercice.exercice.service.TransactionHistory;
+import com.exercice.exercice.service.TransactionMetrics;
 import com.exercice.exercice.service.TransactionService;
+import com.exercice.exercice.service.TransactionValidator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.ReadPreference;
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionId;
+import com.mongodb.connection.ConnectionPoolSettings;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolClosedEvent;
+import com.mongodb.event.ConnectionPoolCreatedEvent;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.exercice.exercice.web.AdaptiveConcurrencyLimit;
+import com.exercice.exercice.web.LoadSheddingFilter;
 import com.exercice.exercice.web.TransactionController;
+import com.exercice.exercice.web.TransactionExceptionHandler;
+import com.exercice.exercice.web.TransactionStatsController;
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -17,17 +73,54 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ChangeStreamOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperationContext;
+import org.springframework.data.mongodb.core.aggregation.TypeBasedAggregationOperationContext;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.server.WebFilterChain;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 import reactor.test.StepVerifier;
 
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 @SpringBootTest
 public class TransactionServiceTest {
@@ -35,12 +128,29 @@ public class TransactionServiceTest {
     @Mock
     private ITransactionRepository transactionRepository;
 
+    @Mock
+    private IIdempotencyRecordRepository idempotencyRecordRepository;
+
+    @Mock
+    private ITransactionHistoryRepository historyRepository;
+
+    private TransactionHistory transactionHistory;
+
     private TransactionService transactionService;
 
+    private IdempotencyService idempotencyService;
+
+    private SimpleMeterRegistry meterRegistry;
+
     @BeforeEach
     public void setUp() {
         MockitoAnnotations.openMocks(this);
-        transactionService = new TransactionService(transactionRepository);
+        TransactionProperties properties = new TransactionProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        transactionHistory = new TransactionHistory(historyRepository, null, properties, meterRegistry);
+        transactionService = new TransactionService(transactionRepository, properties, new TransactionCache(properties),
+                new TransactionMetrics(meterRegistry), transactionHistory, new TransactionValidator(properties));
+        idempotencyService = new IdempotencyService(idempotencyRecordRepository, new ObjectMapper(), properties);
     }
 
 
@@ -63,6 +173,37 @@ public class TransactionServiceTest {
     }
 
 
+    @Test
+    public void createTransactions_ShouldWriteInChunksWithNewStatus() {
+        TransactionProperties properties = new TransactionProperties();
+        properties.getBulk().setChunkSize(2);
+        transactionService = new TransactionService(transactionRepository, properties, new TransactionCache(properties),
+                new TransactionMetrics(meterRegistry), transactionHistory, new TransactionValidator(properties));
+
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Transaction transaction = new Transaction();
+            transaction.setId(String.valueOf(i));
+            transaction.setStatus(PaymentStatus.CAPTURED);
+            transactions.add(transaction);
+        }
+
+        when(transactionRepository.insertUnordered(anyList())).thenAnswer(invocation -> {
+            List<Transaction> chunk = invocation.getArgument(0);
+            return Flux.range(0, chunk.size()).map(index -> BulkItemResult.created(index, chunk.get(index).getId()));
+        });
+
+        StepVerifier.create(transactionService.createTransactions(Flux.fromIterable(transactions)))
+                .expectNextMatches(result -> result.getIndex() == 0 && result.getId().equals("0"))
+                .expectNextMatches(result -> result.getIndex() == 1 && result.getId().equals("1"))
+                .expectNextMatches(result -> result.getIndex() == 2 && result.getId().equals("2"))
+                .verifyComplete();
+
+        assertTrue(transactions.stream().allMatch(transaction -> transaction.getStatus() == PaymentStatus.NEW));
+        verify(transactionRepository, times(2)).insertUnordered(anyList());
+        verifyNoMoreInteractions(transactionRepository);
+    }
+
     @Test
     public void updateTransaction_ShouldUpdateTransactionFields() {
         String transactionId = "123";
@@ -76,8 +217,7 @@ public class TransactionServiceTest {
         updatedTransaction.setAmount(60.00);
         updatedTransaction.setPaymentType(PaymentType.PAYPAL);
 
-        when(transactionRepository.findById(transactionId)).thenReturn(Mono.just(existingTransaction));
-        when(transactionRepository.save(existingTransaction)).thenReturn(Mono.just(existingTransaction));
+        when(transactionRepository.findAndTransition(transactionId, updatedTransaction)).thenReturn(Mono.just(existingTransaction));
 
         Mono<Transaction> result = transactionService.updateTransaction(transactionId, updatedTransaction);
 
@@ -87,8 +227,7 @@ public class TransactionServiceTest {
                                 savedTransaction.getPaymentType() == updatedTransaction.getPaymentType())
                 .verifyComplete();
 
-        verify(transactionRepository, times(1)).findById(transactionId);
-        verify(transactionRepository, times(1)).save(existingTransaction);
+        verify(transactionRepository, times(1)).findAndTransition(transactionId, updatedTransaction);
         verifyNoMoreInteractions(transactionRepository);
     }
 
@@ -111,21 +250,104 @@ public class TransactionServiceTest {
         verifyNoMoreInteractions(transactionRepository);
     }
 
+    @Test
+    public void getTransactionById_Captured_ShouldBeServedFromCache() {
+        String transactionId = "123";
+        Transaction transaction = new Transaction();
+        transaction.setId(transactionId);
+        transaction.setStatus(PaymentStatus.CAPTURED);
+
+        when(transactionRepository.findById(transactionId)).thenReturn(Mono.just(transaction));
+
+        StepVerifier.create(transactionService.getTransactionById(transactionId))
+                .expectNext(transaction)
+                .verifyComplete();
+        StepVerifier.create(transactionService.getTransactionById(transactionId))
+                .expectNext(transaction)
+                .verifyComplete();
+        StepVerifier.create(transactionService.deleteTransaction(transactionId))
+                .expectErrorMessage(TransactionException.cannotDeleteCaptured().getMessage())
+                .verify();
+
+        verify(transactionRepository, times(1)).findById(transactionId);
+        verifyNoMoreInteractions(transactionRepository);
+    }
+
+    @Test
+    public void getTransactionById_Concurrent_ShouldShareOneQuery() {
+        String transactionId = "123";
+        Transaction transaction = new Transaction();
+        transaction.setId(transactionId);
+        transaction.setStatus(PaymentStatus.AUTHORIZED);
+        Sinks.One<Transaction> pending = Sinks.one();
+        TransactionProperties properties = new TransactionProperties();
+        TransactionCache transactionCache = new TransactionCache(properties);
+        transactionCache.bindTo(meterRegistry);
+        transactionService = new TransactionService(transactionRepository, properties, transactionCache,
+                new TransactionMetrics(meterRegistry), transactionHistory, new TransactionValidator(properties));
+
+        when(transactionRepository.findById(transactionId)).thenReturn(pending.asMono());
+
+        StepVerifier.create(Flux.merge(transactionService.getTransactionById(transactionId),
+                        transactionService.getTransactionById(transactionId),
+                        transactionService.getTransactionById(transactionId)))
+                .then(() -> pending.tryEmitValue(transaction))
+                .expectNext(transaction, transaction, transaction)
+                .verifyComplete();
+
+        verify(transactionRepository, times(1)).findById(transactionId);
+        assertEquals(1, meterRegistry.get("transactions.lookups").tag("coalesced", "false").functionCounter().count());
+        assertEquals(2, meterRegistry.get("transactions.lookups").tag("coalesced", "true").functionCounter().count());
+    }
+
+    @Test
+    public void getTransactionById_InvalidatedWhileInFlight_ShouldQueryAgain() {
+        String transactionId = "123";
+        Transaction before = Transaction.builder().id(transactionId).amount(10.0).status(PaymentStatus.NEW).build();
+        Transaction after = Transaction.builder().id(transactionId).amount(20.0).status(PaymentStatus.NEW).build();
+        Sinks.One<Transaction> pending = Sinks.one();
+        TransactionCache transactionCache = new TransactionCache(new TransactionProperties());
+
+        Mono<Transaction> first = transactionCache.get(transactionId, id -> pending.asMono());
+
+        StepVerifier.create(first)
+                .then(() -> transactionCache.invalidate(transactionId))
+                .then(() -> pending.tryEmitValue(before))
+                .expectNext(before)
+                .verifyComplete();
+        StepVerifier.create(transactionCache.get(transactionId, id -> Mono.just(after)))
+                .expectNext(after)
+                .verifyComplete();
+    }
+
     @Test
     public void getAllTransactions_ShouldReturnAllTransactions() {
         Transaction transaction1 = new Transaction();
         Transaction transaction2 = new Transaction();
         List<Transaction> transactions = Arrays.asList(transaction1, transaction2);
 
-        when(transactionRepository.findAll()).thenReturn(Flux.fromIterable(transactions));
+        TransactionFilter filter = TransactionFilter.none();
+        when(transactionRepository.findPage(filter, null, 100)).thenReturn(Flux.fromIterable(transactions));
 
-        Flux<Transaction> result = transactionService.getAllTransactions();
+        Flux<Transaction> result = transactionService.getAllTransactions(filter, null, null);
 
         StepVerifier.create(result)
                 .expectNext(transaction1, transaction2)
                 .verifyComplete();
 
-        verify(transactionRepository, times(1)).findAll();
+        verify(transactionRepository, times(1)).findPage(filter, null, 100);
+        verifyNoMoreInteractions(transactionRepository);
+    }
+
+    @Test
+    public void getAllTransactions_ShouldCapTheRequestedLimit() {
+        TransactionFilter filter = TransactionFilter.builder().status(PaymentStatus.AUTHORIZED).build();
+        when(transactionRepository.findPage(filter, "abc", 1000)).thenReturn(Flux.empty());
+
+        StepVerifier.create(transactionService.getAllTransactions(filter, "abc", 1_000_000))
+                .verifyComplete();
+
+        verify(transactionRepository, times(1)).findPage(filter, "abc", 1000);
         verifyNoMoreInteractions(transactionRepository);
     }
     @Test
@@ -136,7 +358,7 @@ public class TransactionServiceTest {
         transaction.setStatus(PaymentStatus.NEW);
 
         when(transactionRepository.findById(transactionId)).thenReturn(Mono.just(transaction));
-        when(transactionRepository.deleteById(transactionId)).thenReturn(Mono.empty());
+        when(transactionRepository.deleteUnchanged(transactionId, null)).thenReturn(Mono.just(true));
 
         Mono<Void> result = transactionService.deleteTransaction(transactionId);
 
@@ -144,10 +366,46 @@ public class TransactionServiceTest {
                 .verifyComplete();
 
         verify(transactionRepository, times(1)).findById(transactionId);
-        verify(transactionRepository, times(1)).deleteById(transactionId);
+        verify(transactionRepository, times(1)).deleteUnchanged(transactionId, null);
         verifyNoMoreInteractions(transactionRepository);
     }
 
+    @Test
+    public void deleteTransaction_CapturedMeanwhile_ShouldReadItAgainAndRefuse() {
+        String transactionId = "123";
+        Transaction authorized = Transaction.builder().id(transactionId).status(PaymentStatus.AUTHORIZED).version(3L).build();
+        Transaction captured = Transaction.builder().id(transactionId).status(PaymentStatus.CAPTURED).version(4L).build();
+
+        when(transactionRepository.findById(transactionId)).thenReturn(Mono.just(authorized), Mono.just(captured));
+        when(transactionRepository.deleteUnchanged(transactionId, 3L)).thenReturn(Mono.just(false));
+
+        StepVerifier.create(transactionService.deleteTransaction(transactionId))
+                .expectErrorMessage(TransactionException.cannotDeleteCaptured().getMessage())
+                .verify();
+
+        verify(transactionRepository, times(2)).findById(transactionId);
+        verify(transactionRepository, times(1)).deleteUnchanged(transactionId, 3L);
+        assertEquals(1, meterRegistry.get("transactions.conflicts").tag("write", "DELETE").counter().count());
+        assertEquals(1, meterRegistry.get("transactions.conflicts.retries").tag("write", "DELETE").counter().count());
+    }
+
+    @Test
+    public void deleteTransaction_AlwaysChanging_ShouldGiveUpWithAConflict() {
+        String transactionId = "123";
+        Transaction transaction = Transaction.builder().id(transactionId).status(PaymentStatus.NEW).version(1L).build();
+
+        when(transactionRepository.findById(transactionId)).thenReturn(Mono.just(transaction));
+        when(transactionRepository.deleteUnchanged(transactionId, 1L)).thenReturn(Mono.just(false));
+
+        StepVerifier.create(transactionService.deleteTransaction(transactionId))
+                .expectError(OptimisticLockingFailureException.class)
+                .verify();
+
+        verify(transactionRepository, times(4)).deleteUnchanged(transactionId, 1L);
+        assertEquals(4, meterRegistry.get("transactions.conflicts").tag("write", "DELETE").counter().count());
+        assertEquals(3, meterRegistry.get("transactions.conflicts.retries").tag("write", "DELETE").counter().count());
+    }
+
 
 
     //création d'une transaction d'un montant de 54,80 EUR avec une carte bancaire et une commande contenant
@@ -210,18 +468,18 @@ public class TransactionServiceTest {
         expectedUpdatedTransaction.setStatus(PaymentStatus.AUTHORIZED);
 
         // Set up the mock behavior
-        when(transactionRepository.findById(transactionId)).thenReturn(Mono.just(existingTransaction));
-        when(transactionRepository.save(existingTransaction)).thenReturn(Mono.just(expectedUpdatedTransaction));
+        when(transactionRepository.findAndTransition(transactionId, updatedTransaction)).thenReturn(Mono.just(existingTransaction));
 
         // Update the transaction and verify the result
         Mono<Transaction> result = transactionService.updateTransaction(transactionId, updatedTransaction);
 
         StepVerifier.create(result)
-                .expectNext(expectedUpdatedTransaction)
+                .expectNextMatches(savedTransaction ->
+                        savedTransaction.getId().equals(expectedUpdatedTransaction.getId()) &&
+                                savedTransaction.getStatus() == expectedUpdatedTransaction.getStatus())
                 .verifyComplete();
 
-        verify(transactionRepository, times(1)).findById(transactionId);
-        verify(transactionRepository, times(1)).save(existingTransaction); // Updated to use the updatedTransaction object
+        verify(transactionRepository, times(1)).findAndTransition(transactionId, updatedTransaction);
         verifyNoMoreInteractions(transactionRepository);
     }
 
@@ -249,23 +507,148 @@ public class TransactionServiceTest {
         expectedUpdatedTransaction.setStatus(PaymentStatus.CAPTURED);
 
         // Set up the mock behavior
-        when(transactionRepository.findById(transactionId)).thenReturn(Mono.just(existingTransaction));
-        when(transactionRepository.save(existingTransaction)).thenReturn(Mono.just(expectedUpdatedTransaction));
+        when(transactionRepository.findAndTransition(transactionId, updatedTransaction)).thenReturn(Mono.just(existingTransaction));
 
         // Update the transaction and verify the result
         Mono<Transaction> result = transactionService.updateTransaction(transactionId, updatedTransaction);
 
         StepVerifier.create(result)
-                .expectNext(expectedUpdatedTransaction)
+                .expectNextMatches(savedTransaction ->
+                        savedTransaction.getId().equals(expectedUpdatedTransaction.getId()) &&
+                                savedTransaction.getStatus() == expectedUpdatedTransaction.getStatus())
                 .verifyComplete();
 
-        verify(transactionRepository, times(1)).findById(transactionId);
-        verify(transactionRepository, times(1)).save(existingTransaction);
+        verify(transactionRepository, times(1)).findAndTransition(transactionId, updatedTransaction);
         verifyNoMoreInteractions(transactionRepository);
     }
 
+    @Test
+    public void updateTransaction_UnknownId_ShouldFailWithNotFound() {
+        Transaction updatedTransaction = new Transaction();
+        updatedTransaction.setStatus(PaymentStatus.AUTHORIZED);
+
+        when(transactionRepository.findAndTransition("404", updatedTransaction)).thenReturn(Mono.empty());
+
+        StepVerifier.create(transactionService.updateTransaction("404", updatedTransaction))
+                .expectErrorMatches(error -> error instanceof TransactionException && error.getMessage().contains("404"))
+                .verify();
+    }
+
+    @Test
+    public void updateTransaction_StaleVersion_ShouldFailWithAConflict() {
+        Transaction updatedTransaction = Transaction.builder().amount(20.0).status(PaymentStatus.AUTHORIZED).version(2L).build();
+
+        when(transactionRepository.findAndTransition("1", updatedTransaction)).thenReturn(Mono.empty());
+        when(transactionRepository.existsById("1")).thenReturn(Mono.just(true));
+
+        StepVerifier.create(transactionService.updateTransaction("1", updatedTransaction))
+                .expectError(OptimisticLockingFailureException.class)
+                .verify();
+
+        assertEquals(1, meterRegistry.get("transactions.conflicts").tag("write", "UPDATE").counter().count());
+        assertEquals(0, meterRegistry.get("transactions.conflicts.retries").tag("write", "UPDATE").counter().count());
+    }
+
+    @Test
+    public void updateTransaction_AlreadyCaptured_ShouldBeRefused() {
+        Transaction existingTransaction = new Transaction();
+        existingTransaction.setId("1");
+        existingTransaction.setStatus(PaymentStatus.CAPTURED);
+
+        Transaction updatedTransaction = new Transaction();
+        updatedTransaction.setStatus(PaymentStatus.AUTHORIZED);
+
+        when(transactionRepository.findAndTransition("1", updatedTransaction)).thenReturn(Mono.just(existingTransaction));
+
+        StepVerifier.create(transactionService.updateTransaction("1", updatedTransaction))
+                .expectErrorMessage(TransactionException.cannotUpdateCaptured().getMessage())
+                .verify();
+
+        assertEquals(1, meterRegistry.counter("transactions.rejected", "reason", "UPDATE_CAPTURED").count());
+    }
+
+    @Test
+    public void updateTransaction_CaptureWithoutAuthorization_ShouldBeRefused() {
+        Transaction existingTransaction = new Transaction();
+        existingTransaction.setId("1");
+        existingTransaction.setStatus(PaymentStatus.NEW);
+
+        Transaction updatedTransaction = new Transaction();
+        updatedTransaction.setStatus(PaymentStatus.CAPTURED);
+
+        when(transactionRepository.findAndTransition("1", updatedTransaction)).thenReturn(Mono.just(existingTransaction));
+
+        StepVerifier.create(transactionService.updateTransaction("1", updatedTransaction))
+                .expectErrorMessage(TransactionException.cannotCaptureUnAuthorized().getMessage())
+                .verify();
+    }
+
+    @Test
+    public void updateTransaction_AmountOfTransactionWithOrderLines_ShouldBeRefused() {
+        Transaction existingTransaction = Transaction.builder().id("1").amount(50.0).status(PaymentStatus.NEW)
+                .orderLines(Collections.singletonList(new OrderLine("bike", 2, 25.0f)))
+                .build();
+        Transaction updatedTransaction = Transaction.builder().amount(60.0).status(PaymentStatus.AUTHORIZED).build();
+        Transaction sameAmount = Transaction.builder().amount(50.0).status(PaymentStatus.AUTHORIZED).build();
+
+        when(transactionRepository.findAndTransition("1", updatedTransaction)).thenReturn(Mono.just(existingTransaction));
+        when(transactionRepository.findAndTransition("1", sameAmount)).thenReturn(Mono.just(existingTransaction));
+
+        StepVerifier.create(transactionService.updateTransaction("1", updatedTransaction))
+                .expectErrorMatches(error -> ((TransactionException) error).getReason() == TransactionException.Reason.INVALID
+                        && error.getMessage().contains("50.00"))
+                .verify();
+        StepVerifier.create(transactionService.updateTransaction("1", sameAmount))
+                .expectNextMatches(transaction -> transaction.getStatus() == PaymentStatus.AUTHORIZED)
+                .verifyComplete();
+
+        assertEquals(1, meterRegistry.counter("transactions.rejected", "reason", "INVALID").count());
+    }
+
     //création d'une transaction d'un montant de 208 EUR avec PayPal et une commande contenant
     //1 vélo à 208 EUR
+    @Test
+    @SuppressWarnings("unchecked")
+    public void updateTransaction_StatusOnlyWithOrderLines_ShouldKeepTheStoredAmount() {
+        Transaction existingTransaction = Transaction.builder().id("1").amount(50.0).status(PaymentStatus.NEW)
+                .orderLines(Collections.singletonList(new OrderLine("bike", 2, 25.0f)))
+                .build();
+        Transaction statusOnly = Transaction.builder().status(PaymentStatus.AUTHORIZED).build();
+        when(transactionRepository.findAndTransition("1", statusOnly)).thenReturn(Mono.just(existingTransaction));
+
+        StepVerifier.create(transactionService.updateTransaction("1", statusOnly))
+                .expectNextMatches(transaction -> transaction.getStatus() == PaymentStatus.AUTHORIZED
+                        && transaction.getAmount() == 50.0)
+                .verifyComplete();
+        assertEquals(0, meterRegistry.counter("transactions.rejected", "reason", "INVALID").count());
+
+        // Neither written nor compared to the stored amount by the update pipeline
+        TransactionProperties properties = new TransactionProperties();
+        ReactiveMongoTemplate template = mock(ReactiveMongoTemplate.class);
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        when(template.getConverter()).thenReturn(converter(TransactionProperties.Storage.Layout.FULL));
+        when(template.getCollectionName(Transaction.class)).thenReturn("Transaction");
+        when(template.getCollection("Transaction")).thenReturn(Mono.just(collection));
+        ObjectId id = new ObjectId();
+        when(collection.findOneAndUpdate(any(Bson.class), anyList(), any(FindOneAndUpdateOptions.class)))
+                .thenReturn(Mono.just(new Document("_id", id).append("amount", 50.0).append("status", "NEW")));
+        TransactionLayoutMigration layoutMigration = new TransactionLayoutMigration(template, properties);
+        when(template.findById("Transaction", Document.class, "TransactionLayout"))
+                .thenReturn(Mono.just(new Document("_id", "Transaction").append("layout", "FULL")));
+        layoutMigration.readMarker();
+        ITransactionRepositoryCustomImpl repository = new ITransactionRepositoryCustomImpl(template, template, template,
+                properties, layoutMigration);
+
+        StepVerifier.create(repository.findAndTransition(id.toHexString(), statusOnly)).expectNextCount(1).verifyComplete();
+
+        ArgumentCaptor<List<Bson>> pipelines = ArgumentCaptor.forClass(List.class);
+        verify(collection).findOneAndUpdate(any(Bson.class), pipelines.capture(), any(FindOneAndUpdateOptions.class));
+        Document set = (Document) ((Document) pipelines.getValue().get(0)).get("$set");
+        Document allowed = new Document("$ne", Arrays.asList("$status", "CAPTURED"));
+        assertEquals(new Document("$cond", Arrays.asList(allowed, new Document("$literal", "AUTHORIZED"), "$status")), set.get("status"));
+        assertEquals(new HashSet<>(Arrays.asList("status", "version")), set.keySet());
+    }
+
     @Test
     public void createTransactionWithPayPal_ShouldCreateTransactionWithOrderLines() {
         // Prepare test data
@@ -302,5 +685,720 @@ public class TransactionServiceTest {
 
 
 
-}
 
+
+    @Test
+    public void createTransaction_WithoutAmount_ShouldTakeTheTotalOfItsOrderLines() {
+        Transaction transaction = Transaction.builder()
+                .paymentType(PaymentType.CREDIT_CARD)
+                .orderLines(Arrays.asList(new OrderLine("Gloves", 3, 19.99f), new OrderLine("Sticker", 1, 0.03f)))
+                .build();
+        when(transactionRepository.save(transaction)).thenReturn(Mono.just(transaction));
+
+        StepVerifier.create(transactionService.createTransaction(transaction))
+                .expectNextMatches(saved -> saved.getAmount() == 60.0)
+                .verifyComplete();
+    }
+
+    @Test
+    public void createTransaction_Invalid_ShouldBeRefusedBeforeReachingMongo() {
+        TransactionProperties properties = new TransactionProperties();
+        properties.getValidation().getRules().put(PaymentType.GIFT_CARD,
+                new TransactionProperties.Validation.Rule(null, new BigDecimal("500"), 0, false));
+        transactionService = new TransactionService(transactionRepository, properties, new TransactionCache(properties),
+                new TransactionMetrics(meterRegistry), transactionHistory, new TransactionValidator(properties));
+        List<OrderLine> gloves = Collections.singletonList(new OrderLine("Gloves", 4, 10.0f));
+
+        StepVerifier.create(transactionService.createTransaction(Transaction.builder()
+                        .amount(40.01).paymentType(PaymentType.CREDIT_CARD).orderLines(gloves).build()))
+                .expectErrorMatches(error -> ((TransactionException) error).getReason() == TransactionException.Reason.INVALID
+                        && error.getMessage().equals("The amount 40.01 isn't the 40.00 the order lines add up to"))
+                .verify();
+        StepVerifier.create(transactionService.createTransaction(Transaction.builder()
+                        .amount(500.01).paymentType(PaymentType.GIFT_CARD).build()))
+                .expectErrorMatches(error -> error.getMessage().equals("A GIFT_CARD transaction is of at most 500.00, not 500.01"))
+                .verify();
+        StepVerifier.create(transactionService.updateTransaction("1", Transaction.builder()
+                        .amount(10.001).status(PaymentStatus.AUTHORIZED).build()))
+                .expectError(TransactionException.class)
+                .verify();
+        List<String> sent = new ArrayList<>();
+        when(transactionRepository.insertUnordered(anyList())).thenAnswer(invocation -> {
+            List<Transaction> chunk = invocation.getArgument(0);
+            chunk.forEach(transaction -> sent.add(transaction.getId()));
+            return Flux.range(0, chunk.size()).map(index -> BulkItemResult.created(index, chunk.get(index).getId()));
+        });
+        StepVerifier.create(transactionService.createTransactions(Flux.just(
+                        Transaction.builder().id("a").amount(40.0).orderLines(gloves).build(),
+                        Transaction.builder().id("b").amount(41.0).orderLines(gloves).build(),
+                        Transaction.builder().id("c").orderLines(gloves).build())))
+                .expectNextMatches(result -> result.getIndex() == 0 && result.getStatus() == BulkItemResult.Status.CREATED)
+                .expectNextMatches(result -> result.getIndex() == 1 && result.getStatus() == BulkItemResult.Status.FAILED)
+                .expectNextMatches(result -> result.getIndex() == 2 && result.getStatus() == BulkItemResult.Status.CREATED)
+                .verifyComplete();
+        assertEquals(Arrays.asList("a", "c"), sent);
+        assertEquals(4.0, meterRegistry.get("transactions.rejected").tag("reason", "INVALID").counter().count());
+        verify(transactionRepository, never()).save(any(Transaction.class));
+    }
+
+    @Test
+    public void idempotentExecute_ShouldRunConcurrentDuplicatesOnceAndReplayTheResponse() {
+        Transaction created = Transaction.builder().id("1").amount(54.80).status(PaymentStatus.NEW).build();
+        Sinks.One<Transaction> pending = Sinks.one();
+        AtomicInteger executions = new AtomicInteger();
+
+        when(idempotencyRecordRepository.insert(any(IdempotencyRecord.class)))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        when(idempotencyRecordRepository.save(any(IdempotencyRecord.class)))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+
+        Mono<Transaction> first = idempotencyService.execute("POST /transactions", "key", created, () -> {
+            executions.incrementAndGet();
+            return pending.asMono();
+        });
+        Mono<Transaction> second = idempotencyService.execute("POST /transactions", "key", created, () -> {
+            executions.incrementAndGet();
+            return Mono.just(new Transaction());
+        });
+
+        StepVerifier.create(Flux.merge(first, second))
+                .then(() -> pending.tryEmitValue(created))
+                .expectNext(created, created)
+                .verifyComplete();
+
+        StepVerifier.create(idempotencyService.execute("POST /transactions", "key", created, () -> {
+                    executions.incrementAndGet();
+                    return Mono.just(new Transaction());
+                }))
+                .expectNext(created)
+                .verifyComplete();
+
+        assertEquals(1, executions.get());
+        verify(idempotencyRecordRepository, times(1)).insert(any(IdempotencyRecord.class));
+    }
+
+    @Test
+    public void idempotentExecute_ShouldReplayTheRecordedResponseWithoutRunning() {
+        Transaction recorded = Transaction.builder().id("1").amount(54.80).status(PaymentStatus.AUTHORIZED).build();
+
+        // Recorded before the request hash was kept
+        when(idempotencyRecordRepository.insert(any(IdempotencyRecord.class))).thenReturn(Mono.error(new DuplicateKeyException("taken")));
+        when(idempotencyRecordRepository.findById("PUT /transactions/1:key"))
+                .thenReturn(Mono.just(new IdempotencyRecord("PUT /transactions/1:key", null, recorded, null)));
+
+        StepVerifier.create(idempotencyService.execute("PUT /transactions/1", "key", recorded,
+                        () -> Mono.error(new IllegalStateException("should not run"))))
+                .expectNext(recorded)
+                .verifyComplete();
+
+        verify(idempotencyRecordRepository, never()).save(any(IdempotencyRecord.class));
+    }
+
+    @Test
+    public void idempotentExecute_UnrecordedResponse_ShouldNotRunTheWriteAgain() {
+        Transaction body = Transaction.builder().amount(54.80).paymentType(PaymentType.CREDIT_CARD).build();
+        Transaction created = Transaction.builder().id("1").amount(54.80).status(PaymentStatus.NEW).build();
+        AtomicInteger executions = new AtomicInteger();
+        Map<String, IdempotencyRecord> records = new HashMap<>();
+        when(idempotencyRecordRepository.insert(any(IdempotencyRecord.class))).thenAnswer(invocation -> {
+            IdempotencyRecord record = invocation.getArgument(0);
+            return records.putIfAbsent(record.getId(), record) == null
+                    ? Mono.just(record)
+                    : Mono.error(new DuplicateKeyException("taken"));
+        });
+        when(idempotencyRecordRepository.findById(anyString()))
+                .thenAnswer(invocation -> Mono.justOrEmpty(records.get(invocation.<String>getArgument(0))));
+        when(idempotencyRecordRepository.deleteById(anyString()))
+                .thenAnswer(invocation -> Mono.fromRunnable(() -> records.remove(invocation.<String>getArgument(0))));
+        when(idempotencyRecordRepository.save(any(IdempotencyRecord.class)))
+                .thenReturn(Mono.error(new DataAccessResourceFailureException("down")));
+        Supplier<Mono<Transaction>> create = () -> {
+            executions.incrementAndGet();
+            return Mono.just(created);
+        };
+
+        // The write is done and answered, only its record is lost
+        StepVerifier.create(idempotencyService.execute("POST /transactions", "key", body, create))
+                .expectNext(created)
+                .verifyComplete();
+        // Another instance keeps the key reserved instead of writing a second time
+        IdempotencyService other = new IdempotencyService(idempotencyRecordRepository, new ObjectMapper(), new TransactionProperties());
+        StepVerifier.create(other.execute("POST /transactions", "key", body, create))
+                .expectErrorMatches(error -> ((TransactionException) error).getReason() == TransactionException.Reason.KEY_IN_PROGRESS)
+                .verify();
+        body.setAmount(99.0);
+        StepVerifier.create(other.execute("POST /transactions", "key", body, create))
+                .expectErrorMatches(error -> ((TransactionException) error).getReason() == TransactionException.Reason.KEY_REUSED)
+                .verify();
+        assertEquals(1, executions.get());
+
+        // A refused write releases its key, the retry runs
+        StepVerifier.create(other.execute("POST /transactions", "refused", body,
+                        () -> Mono.error(TransactionException.invalid("no"))))
+                .expectError(TransactionException.class)
+                .verify();
+        StepVerifier.create(other.execute("POST /transactions", "refused", body, create))
+                .expectNext(created)
+                .verifyComplete();
+        assertEquals(HttpStatus.CONFLICT, new TransactionExceptionHandler().handleRefusal(TransactionException.keyInProgress()).getStatusCode());
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, new TransactionExceptionHandler().handleRefusal(TransactionException.keyReused()).getStatusCode());
+    }
+
+    @Test
+    public void streamEvents_SlowSubscriber_ShouldBeDisconnectedOnceTheBufferIsFull() {
+        TransactionProperties properties = new TransactionProperties();
+        properties.getEvents().setBufferSize(10);
+        transactionService = new TransactionService(transactionRepository, properties, new TransactionCache(properties),
+                new TransactionMetrics(meterRegistry), transactionHistory, new TransactionValidator(properties));
+
+        Sinks.Many<TransactionEvent> changes = Sinks.many().unicast().onBackpressureBuffer();
+        when(transactionRepository.watch(Collections.emptySet(), null)).thenReturn(changes.asFlux());
+
+        // The events already buffered are still delivered before the stream ends
+        StepVerifier.create(transactionService.streamEvents(Collections.emptySet(), null), 0)
+                .then(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        changes.tryEmitNext(TransactionEvent.builder().id(String.valueOf(i)).type(TransactionEvent.Type.CREATED).build());
+                    }
+                })
+                .thenRequest(Long.MAX_VALUE)
+                .expectNextCount(10)
+                .verifyComplete();
+
+        assertEquals(1, meterRegistry.get("transactions.events.overflow").tag("policy", "DISCONNECT").counter().count());
+    }
+
+    @Test
+    public void captureTransactions_ShouldReportAnOutcomePerId() {
+        List<String> ids = Arrays.asList("1", "2", "3");
+        when(transactionRepository.findStatuses(ids)).thenReturn(Flux.just(
+                Transaction.builder().id("1").status(PaymentStatus.AUTHORIZED).build(),
+                Transaction.builder().id("2").status(PaymentStatus.CAPTURED).build()));
+        when(transactionRepository.captureAuthorized(Collections.singleton("1"))).thenReturn(Flux.just("1"));
+
+        StepVerifier.create(transactionService.captureTransactions(CaptureRequest.builder().ids(ids).build()))
+                .expectNextMatches(result -> result.getId().equals("1") && result.getOutcome() == CaptureResult.Outcome.CAPTURED)
+                .expectNextMatches(result -> result.getId().equals("2") && result.getOutcome() == CaptureResult.Outcome.WRONG_STATE
+                        && result.getStatus() == PaymentStatus.CAPTURED)
+                .expectNextMatches(result -> result.getId().equals("3") && result.getOutcome() == CaptureResult.Outcome.NOT_FOUND)
+                .verifyComplete();
+
+        verify(transactionRepository, times(1)).findStatuses(ids);
+        verify(transactionRepository, times(1)).captureAuthorized(Collections.singleton("1"));
+        verifyNoMoreInteractions(transactionRepository);
+    }
+
+    @Test
+    public void captureTransactions_ChangedConcurrently_ShouldReadTheStatusesAgain() {
+        List<String> ids = Arrays.asList("1", "2", "3");
+        when(transactionRepository.findStatuses(ids)).thenReturn(Flux.just(
+                Transaction.builder().id("1").status(PaymentStatus.AUTHORIZED).build(),
+                Transaction.builder().id("2").status(PaymentStatus.AUTHORIZED).build(),
+                Transaction.builder().id("3").status(PaymentStatus.AUTHORIZED).build()));
+        when(transactionRepository.captureAuthorized(any())).thenReturn(Flux.just("1"));
+        // Another request captured 2 first, 3 went back to NEW
+        when(transactionRepository.findStatuses(new HashSet<>(Arrays.asList("2", "3")))).thenReturn(Flux.just(
+                Transaction.builder().id("2").status(PaymentStatus.CAPTURED).build(),
+                Transaction.builder().id("3").status(PaymentStatus.NEW).build()));
+        ArgumentCaptor<Iterable<TransactionTransition>> written = ArgumentCaptor.forClass(Iterable.class);
+        when(historyRepository.insert(written.capture())).thenReturn(Flux.empty());
+
+        StepVerifier.create(transactionService.captureTransactions(CaptureRequest.builder().ids(ids).build()))
+                .expectNextMatches(result -> result.getId().equals("1") && result.getOutcome() == CaptureResult.Outcome.CAPTURED)
+                .expectNextMatches(result -> result.getId().equals("2") && result.getOutcome() == CaptureResult.Outcome.WRONG_STATE
+                        && result.getStatus() == PaymentStatus.CAPTURED)
+                .expectNextMatches(result -> result.getId().equals("3") && result.getOutcome() == CaptureResult.Outcome.WRONG_STATE
+                        && result.getStatus() == PaymentStatus.NEW)
+                .verifyComplete();
+
+        // The capture of 2 belongs to the request that made it
+        StepVerifier.create(transactionHistory.flush()).expectNext(1).verifyComplete();
+        assertEquals("1", written.getValue().iterator().next().getTransactionId());
+    }
+
+    @Test
+    public void compactStorage_RewriteBothWays_ShouldRestoreTheDocument() {
+        Document full = new Document("_id", "1")
+                .append("amount", 54.80)
+                .append("paymentType", "PAYPAL")
+                .append("status", "AUTHORIZED")
+                .append("orderLines", Collections.singletonList(new Document("productName", "ski")
+                        .append("quantity", 2).append("price", 27.40)));
+        Document document = new Document(full);
+
+        assertTrue(CompactStorage.rewrite(document, TransactionProperties.Storage.Layout.COMPACT));
+        assertEquals(Arrays.asList("_id", "a", "t", "s", "l"), new ArrayList<>(document.keySet()));
+        assertEquals(5480, document.get("a"));
+        assertEquals(PaymentType.PAYPAL.ordinal(), document.get("t"));
+        assertEquals(PaymentStatus.AUTHORIZED.ordinal(), document.get("s"));
+        assertEquals(new Document("n", "ski").append("q", 2).append("p", 2740), document.getList("l", Document.class).get(0));
+        assertFalse(CompactStorage.rewrite(document, TransactionProperties.Storage.Layout.COMPACT));
+
+        assertTrue(CompactStorage.rewrite(document, TransactionProperties.Storage.Layout.FULL));
+        assertEquals(full, document);
+    }
+
+    @Test
+    public void compactStorage_ShouldKeepMoneyInMinorUnitsOnlyWhileStored() {
+        Document mapped = new Document("a", 0.1 + 0.2)
+                .append("l", Collections.singletonList(new Document("n", "ski").append("p", 19.99)));
+
+        CompactStorage.beforeSave(mapped, TransactionProperties.Storage.Layout.COMPACT);
+        assertEquals(30, mapped.get("a"));
+        assertEquals(1999, mapped.getList("l", Document.class).get(0).get("p"));
+
+        CompactStorage.afterLoad(mapped, TransactionProperties.Storage.Layout.COMPACT);
+        assertEquals(0.3, mapped.get("a"));
+        assertEquals(19.99, mapped.getList("l", Document.class).get(0).get("p"));
+    }
+
+    @Test
+    public void loadShedding_ClientOverItsBucket_ShouldGet429WithRetryAfter() {
+        TransactionProperties properties = new TransactionProperties();
+        properties.getRateLimit().setEnabled(true);
+        properties.getRateLimit().setPerClient(new TransactionProperties.RateLimit.Bucket(2, 0.5));
+        properties.getRateLimit().setTrustedProxies(Collections.singletonList("10.0.0.1"));
+        LoadSheddingFilter filter = new LoadSheddingFilter(properties, new AdaptiveConcurrencyLimit(properties),
+                new TransactionMetrics(meterRegistry));
+        AtomicInteger passed = new AtomicInteger();
+        WebFilterChain chain = exchange -> Mono.fromRunnable(passed::incrementAndGet);
+        InetSocketAddress proxy = new InetSocketAddress("10.0.0.1", 40000);
+        InetSocketAddress caller = new InetSocketAddress("192.168.1.5", 40000);
+
+        for (int i = 0; i < 2; i++) {
+            filter.filter(MockServerWebExchange.from(MockServerHttpRequest.get("/transactions").remoteAddress(proxy).header("X-Client-Id", "a")), chain).block();
+        }
+        MockServerWebExchange refused = MockServerWebExchange.from(MockServerHttpRequest.get("/transactions").remoteAddress(proxy).header("X-Client-Id", "a"));
+        filter.filter(refused, chain).block();
+        filter.filter(MockServerWebExchange.from(MockServerHttpRequest.get("/transactions").remoteAddress(proxy).header("X-Client-Id", "b")), chain).block();
+        assertEquals(3, passed.get());
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, refused.getResponse().getStatusCode());
+        assertEquals("2", refused.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+
+        // Anyone else is told apart by address, whatever header they pick
+        for (int i = 0; i < 3; i++) {
+            filter.filter(MockServerWebExchange.from(MockServerHttpRequest.get("/transactions").remoteAddress(caller).header("X-Client-Id", "c" + i)), chain).block();
+        }
+        assertEquals(5, passed.get());
+        assertEquals(2, meterRegistry.get("transactions.shed").tag("reason", "CLIENT_RATE").counter().count());
+    }
+
+    @Test
+    public void concurrencyLimit_RisingRepositoryLatency_ShouldShrinkTheLimit() {
+        TransactionProperties properties = new TransactionProperties();
+        AtomicLong nanoTime = new AtomicLong();
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(properties, nanoTime::get);
+        long window = properties.getConcurrency().getWindow().toNanos();
+
+        for (int i = 0; i < 20; i++) {
+            nanoTime.addAndGet(window);
+            for (int call = 0; call < 10; call++) {
+                limit.record(TimeUnit.MILLISECONDS.toNanos(2));
+            }
+        }
+        assertEquals(properties.getConcurrency().getInitialLimit(), limit.getLimit());
+
+        for (int i = 0; i < 20; i++) {
+            nanoTime.addAndGet(window);
+            for (int call = 0; call < 10; call++) {
+                limit.record(TimeUnit.MILLISECONDS.toNanos(20));
+            }
+        }
+        int shrunk = limit.getLimit();
+        assertTrue(shrunk < properties.getConcurrency().getInitialLimit() / 2, "limit is " + shrunk);
+        for (int i = 0; i < shrunk; i++) {
+            assertTrue(limit.tryAcquire());
+        }
+        assertFalse(limit.tryAcquire());
+        limit.release();
+        assertTrue(limit.tryAcquire());
+    }
+
+    @Test
+    public void transactionException_ShouldBeSharedAndCarryNoStackTrace() {
+        assertSame(TransactionException.cannotUpdateCaptured(), TransactionException.cannotUpdateCaptured());
+        assertEquals(0, TransactionException.cannotDeleteCaptured().getStackTrace().length);
+        assertEquals(0, TransactionException.cannotFind("1").getStackTrace().length);
+    }
+
+    @Test
+    public void refusedRequests_ShouldBeAnsweredTheSameWayByEveryEndpoint() {
+        Transaction captured = Transaction.builder().id("1").amount(10.0).status(PaymentStatus.CAPTURED).build();
+        Transaction stale = Transaction.builder().amount(20.0).status(PaymentStatus.AUTHORIZED).version(2L).build();
+        when(transactionRepository.findById("1")).thenReturn(Mono.just(captured));
+        when(transactionRepository.findById("404")).thenReturn(Mono.empty());
+        when(transactionRepository.findAndTransition(eq("2"), any(Transaction.class))).thenReturn(Mono.empty());
+        when(transactionRepository.existsById("2")).thenReturn(Mono.just(true));
+        when(transactionRepository.save(any(Transaction.class)))
+                .thenReturn(Mono.error(new DuplicateKeyException("E11000 duplicate key error collection: Transaction index: _id_")));
+        WebTestClient client = WebTestClient.bindToController(new TransactionController(transactionService, idempotencyService))
+                .controllerAdvice(new TransactionExceptionHandler())
+                .build();
+
+        client.get().uri("/transactions/404").exchange()
+                .expectStatus().isNotFound()
+                .expectBody().jsonPath("$.reason").isEqualTo("NOT_FOUND");
+        client.delete().uri("/transactions/404").exchange()
+                .expectStatus().isNotFound()
+                .expectBody().jsonPath("$.reason").isEqualTo("NOT_FOUND");
+        client.delete().uri("/transactions/1").exchange()
+                .expectStatus().isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY)
+                .expectBody().jsonPath("$.reason").isEqualTo("DELETE_CAPTURED");
+        client.put().uri("/transactions/2").bodyValue(stale).exchange()
+                .expectStatus().isEqualTo(HttpStatus.CONFLICT)
+                .expectBody().jsonPath("$.reason").isEqualTo("CONFLICT");
+        client.post().uri("/transactions").bodyValue(Transaction.builder().id("1").amount(10.0).build()).exchange()
+                .expectStatus().isEqualTo(HttpStatus.CONFLICT)
+                .expectBody()
+                .jsonPath("$.reason").isEqualTo("DUPLICATE")
+                .jsonPath("$.message").isEqualTo("A transaction with the same id already exists.");
+        assertEquals(1, meterRegistry.get("transactions.rejected").tag("reason", "DUPLICATE").counter().count());
+    }
+
+    @Test
+    public void summaryView_ShouldReadWithoutOrderLinesAndServeThemSeparately() {
+        Transaction summary = Transaction.builder().id("1").amount(50.0).paymentType(PaymentType.CREDIT_CARD).version(0L).build();
+        Transaction lines = Transaction.builder().id("1")
+                .orderLines(Collections.singletonList(new OrderLine("bike", 2, 25.0f)))
+                .build();
+        when(transactionRepository.findSummaryPage(any(TransactionFilter.class), isNull(), eq(100))).thenReturn(Flux.just(summary));
+        when(transactionRepository.findSummaryById("1")).thenReturn(Mono.just(summary));
+        when(transactionRepository.findOrderLines("1")).thenReturn(Mono.just(lines));
+        when(transactionRepository.findOrderLines("404")).thenReturn(Mono.empty());
+        WebTestClient client = WebTestClient.bindToController(new TransactionController(transactionService, idempotencyService))
+                .controllerAdvice(new TransactionExceptionHandler())
+                .build();
+
+        client.get().uri("/transactions?view=summary").exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].id").isEqualTo("1")
+                .jsonPath("$[0].status").isEqualTo("NEW")
+                .jsonPath("$[0].orderLines").doesNotExist();
+        client.get().uri("/transactions/1?view=summary").exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.amount").isEqualTo(50.0)
+                .jsonPath("$.orderLines").doesNotExist();
+        client.get().uri("/transactions/1/orderLines").exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].productName").isEqualTo("bike")
+                .jsonPath("$[0].quantity").isEqualTo(2);
+        client.get().uri("/transactions/404/orderLines").exchange()
+                .expectStatus().isNotFound();
+        verify(transactionRepository, never()).findPage(any(), any(), anyInt());
+        verify(transactionRepository, never()).findById(anyString());
+    }
+
+    @Test
+    public void history_FullQueue_ShouldDropAndFlushOneBatchAtATime() {
+        TransactionProperties properties = new TransactionProperties();
+        properties.getHistory().setQueueCapacity(3);
+        properties.getHistory().setBatchSize(2);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        TransactionHistory history = new TransactionHistory(historyRepository, null, properties, registry);
+        when(historyRepository.insert(ArgumentMatchers.<TransactionTransition>anyIterable()))
+                .thenAnswer(invocation -> Flux.fromIterable(invocation.<Iterable<TransactionTransition>>getArgument(0)));
+
+        for (int i = 0; i < 4; i++) {
+            history.record(String.valueOf(i), null, PaymentStatus.NEW);
+        }
+        assertEquals(1, registry.get("transactions.history.dropped").functionCounter().count());
+        assertEquals(3, registry.get("transactions.history.queue").gauge().value());
+
+        // A full batch is written, the transition left over waits for the next flush
+        StepVerifier.create(history.flush()).expectNext(2).verifyComplete();
+        assertEquals(1, registry.get("transactions.history.queue").gauge().value());
+        StepVerifier.create(history.flush()).expectNext(1).verifyComplete();
+        assertEquals(0, registry.get("transactions.history.queue").gauge().value());
+        assertEquals(2, registry.get("transactions.history.flush.lag").timer().count());
+    }
+
+    @Test
+    public void updateTransaction_StatusChanged_ShouldQueueTheTransition() {
+        Transaction existingTransaction = Transaction.builder().id("1").amount(10.0).status(PaymentStatus.NEW).build();
+        Transaction updatedTransaction = Transaction.builder().amount(10.0).status(PaymentStatus.AUTHORIZED).build();
+        when(transactionRepository.findAndTransition("1", updatedTransaction)).thenReturn(Mono.just(existingTransaction));
+        ArgumentCaptor<Iterable<TransactionTransition>> written = ArgumentCaptor.forClass(Iterable.class);
+        when(historyRepository.insert(written.capture())).thenReturn(Flux.empty());
+
+        StepVerifier.create(transactionService.updateTransaction("1", updatedTransaction))
+                .expectNextCount(1)
+                .verifyComplete();
+        // Only the amount changes, that isn't a transition
+        Transaction amountOnly = Transaction.builder().amount(12.0).status(PaymentStatus.NEW).build();
+        when(transactionRepository.findAndTransition("2", amountOnly))
+                .thenReturn(Mono.just(Transaction.builder().id("2").amount(10.0).status(PaymentStatus.NEW).build()));
+        StepVerifier.create(transactionService.updateTransaction("2", amountOnly))
+                .expectNextCount(1)
+                .verifyComplete();
+        StepVerifier.create(transactionHistory.flush()).expectNext(1).verifyComplete();
+
+        TransactionTransition transition = written.getValue().iterator().next();
+        assertEquals("1", transition.getTransactionId());
+        assertEquals(PaymentStatus.NEW, transition.getFrom());
+        assertEquals(PaymentStatus.AUTHORIZED, transition.getTo());
+    }
+
+    @Test
+    public void archive_ShouldMoveCapturedInBatchesAndStillServeThem() {
+        TransactionProperties properties = new TransactionProperties();
+        properties.getArchive().setEnabled(true);
+        properties.getArchive().setBatchSize(2);
+        properties.getArchive().setPause(Duration.ZERO);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        TransactionArchiver archiver = new TransactionArchiver(transactionRepository, properties, registry);
+        when(transactionRepository.archiveCaptured(any(Instant.class), isNull(), eq(2))).thenReturn(Flux.just("a", "b"));
+        when(transactionRepository.archiveCaptured(any(Instant.class), eq("b"), eq(2))).thenReturn(Flux.just("c"));
+
+        // A batch smaller than batchSize ends the run
+        StepVerifier.create(archiver.archive()).expectNext(3L).verifyComplete();
+        verify(transactionRepository, never()).archiveCaptured(any(Instant.class), eq("c"), anyInt());
+        assertEquals(3, registry.get("transactions.archived").functionCounter().count());
+
+        transactionService = new TransactionService(transactionRepository, properties, new TransactionCache(properties),
+                new TransactionMetrics(meterRegistry), transactionHistory, new TransactionValidator(properties));
+        Transaction archived = Transaction.builder().id("a").amount(10.0).status(PaymentStatus.CAPTURED).version(2L).build();
+        when(transactionRepository.findById("a")).thenReturn(Mono.empty());
+        when(transactionRepository.findById("404")).thenReturn(Mono.empty());
+        when(transactionRepository.findArchived("a")).thenReturn(Mono.just(archived));
+        when(transactionRepository.findArchived("404")).thenReturn(Mono.empty());
+        when(transactionRepository.findAndTransition(eq("a"), any(Transaction.class))).thenReturn(Mono.empty());
+
+        StepVerifier.create(transactionService.getTransactionById("a")).expectNext(archived).verifyComplete();
+        StepVerifier.create(transactionService.getTransactionById("404")).verifyComplete();
+        // Archived transactions are captured ones, and refused as such rather than unknown
+        StepVerifier.create(transactionService.updateTransaction("a", Transaction.builder().amount(10.0).build()))
+                .expectErrorMatches(error -> error == TransactionException.cannotUpdateCaptured())
+                .verify();
+        StepVerifier.create(transactionService.deleteTransaction("a"))
+                .expectErrorMatches(error -> error == TransactionException.cannotDeleteCaptured())
+                .verify();
+        verify(transactionRepository, never()).deleteUnchanged(anyString(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void findAndTransition_UnmigratedDocument_ShouldBeGuardedAndWrittenInItsOwnLayout() {
+        TransactionProperties properties = new TransactionProperties();
+        properties.getStorage().setLayout(TransactionProperties.Storage.Layout.COMPACT);
+        ReactiveMongoTemplate template = mock(ReactiveMongoTemplate.class);
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        when(template.getConverter()).thenReturn(converter(TransactionProperties.Storage.Layout.COMPACT));
+        when(template.getCollectionName(Transaction.class)).thenReturn("Transaction");
+        when(template.getCollection("Transaction")).thenReturn(Mono.just(collection));
+        // Still in the FULL layout: the compact attempt matches nothing, the FULL one hands back the pre-image
+        ObjectId id = new ObjectId();
+        Document unmigrated = new Document("_id", id).append("amount", 10.0).append("paymentType", "CREDIT_CARD")
+                .append("status", "CAPTURED").append("version", 3L);
+        when(collection.findOneAndUpdate(any(Bson.class), anyList(), any(FindOneAndUpdateOptions.class)))
+                .thenReturn(Mono.empty(), Mono.just(unmigrated));
+        // Not checked yet, so the collection counts as mixed
+        ITransactionRepositoryCustomImpl repository = new ITransactionRepositoryCustomImpl(template, template, template,
+                properties, new TransactionLayoutMigration(template, properties));
+
+        StepVerifier.create(repository.findAndTransition(id.toHexString(),
+                        Transaction.builder().amount(99.0).status(PaymentStatus.AUTHORIZED).version(3L).build()))
+                .expectNextMatches(previous -> previous.getStatus() == PaymentStatus.CAPTURED
+                        && previous.getAmount() == 10.0 && previous.getVersion() == 3L)
+                .verifyComplete();
+
+        ArgumentCaptor<Bson> filters = ArgumentCaptor.forClass(Bson.class);
+        ArgumentCaptor<List<Bson>> pipelines = ArgumentCaptor.forClass(List.class);
+        verify(collection, times(2)).findOneAndUpdate(filters.capture(), pipelines.capture(), any(FindOneAndUpdateOptions.class));
+        Document compactFilter = (Document) filters.getAllValues().get(0);
+        assertEquals(new Document("$exists", true), compactFilter.get("a"));
+        assertEquals(3L, compactFilter.get("v"));
+        // The guard reads the status where this document keeps it, and the update writes no compact field next to it
+        Document fullFilter = (Document) filters.getAllValues().get(1);
+        assertEquals(new Document("$exists", true), fullFilter.get("amount"));
+        assertEquals(3L, fullFilter.get("version"));
+        Document set = (Document) ((Document) pipelines.getAllValues().get(1).get(0)).get("$set");
+        // Without order lines, the amount can change
+        Document allowed = new Document("$and", Arrays.asList(new Document("$ne", Arrays.asList("$status", "CAPTURED")),
+                new Document("$or", Arrays.asList(
+                        new Document("$eq", Arrays.asList(new Document("$size",
+                                new Document("$ifNull", Arrays.asList("$orderLines", Collections.emptyList()))), 0)),
+                        new Document("$eq", Arrays.asList("$amount", 99.0))))));
+        assertEquals(new Document("$cond", Arrays.asList(allowed, new Document("$literal", 99.0), "$amount")), set.get("amount"));
+        assertEquals(new Document("$cond", Arrays.asList(allowed, new Document("$literal", "AUTHORIZED"), "$status")), set.get("status"));
+        assertEquals(new HashSet<>(Arrays.asList("amount", "status", "version")), set.keySet());
+    }
+
+    @Test
+    public void layoutMigration_ShouldStartFromTheMarker() {
+        TransactionProperties properties = new TransactionProperties();
+        properties.getStorage().setLayout(TransactionProperties.Storage.Layout.COMPACT);
+        ReactiveMongoTemplate template = mock(ReactiveMongoTemplate.class);
+        when(template.findById("Transaction", Document.class, "TransactionLayout"))
+                .thenReturn(Mono.just(new Document("_id", "Transaction").append("layout", "COMPACT")),
+                        Mono.just(new Document("_id", "Transaction").append("layout", "FULL")),
+                        Mono.error(new IllegalStateException("unreachable")));
+
+        TransactionLayoutMigration uniform = new TransactionLayoutMigration(template, properties);
+        uniform.readMarker();
+        assertFalse(uniform.isMixed());
+        // Marked in the layout it was switched from, or not read at all: documents of both may be there
+        TransactionLayoutMigration switched = new TransactionLayoutMigration(template, properties);
+        switched.readMarker();
+        assertTrue(switched.isMixed());
+        TransactionLayoutMigration unknown = new TransactionLayoutMigration(template, properties);
+        unknown.readMarker();
+        assertTrue(unknown.isMixed());
+    }
+
+    @Test
+    public void watch_ArchivedTransaction_ShouldNotBeReportedAsDeleted() {
+        TransactionProperties properties = new TransactionProperties();
+        properties.getArchive().setEnabled(true);
+        MappingMongoConverter converter = converter(TransactionProperties.Storage.Layout.FULL);
+        ReactiveMongoTemplate template = mock(ReactiveMongoTemplate.class);
+        when(template.getConverter()).thenReturn(converter);
+        when(template.getCollectionName(Transaction.class)).thenReturn("Transaction");
+        ObjectId archivedId = new ObjectId();
+        ObjectId deletedId = new ObjectId();
+        when(template.changeStream(eq("Transaction"), any(ChangeStreamOptions.class), eq(Document.class)))
+                .thenReturn(Flux.just(deletion(archivedId, "1", converter), deletion(deletedId, "2", converter)));
+        // Only the first one was copied to the archive before its deletion
+        when(template.findOne(any(Query.class), eq(Document.class), eq("TransactionArchive")))
+                .thenAnswer(invocation -> archivedId.equals(invocation.<Query>getArgument(0).getQueryObject().get("_id"))
+                        ? Mono.just(new Document("_id", archivedId).append("amount", 10.0).append("status", "CAPTURED"))
+                        : Mono.empty());
+        ITransactionRepositoryCustomImpl repository = new ITransactionRepositoryCustomImpl(template, template, template,
+                properties, new TransactionLayoutMigration(template, properties));
+
+        StepVerifier.create(repository.watch(Collections.emptyList(), null))
+                .expectNextMatches(event -> event.getType() == TransactionEvent.Type.ARCHIVED
+                        && event.getTransactionId().equals(archivedId.toHexString())
+                        && event.getTransaction().getStatus() == PaymentStatus.CAPTURED)
+                .expectNextMatches(event -> event.getType() == TransactionEvent.Type.DELETED
+                        && event.getTransactionId().equals(deletedId.toHexString()) && event.getTransaction() == null)
+                .verifyComplete();
+        // An archived transaction is captured, a subscriber to other statuses only gets the deletion
+        StepVerifier.create(repository.watch(Collections.singletonList(PaymentStatus.NEW), null))
+                .expectNextMatches(event -> event.getType() == TransactionEvent.Type.DELETED)
+                .verifyComplete();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void statsPerBucket_ShouldNotFailOnIdsThatAreNotObjectIds() {
+        TransactionProperties properties = new TransactionProperties();
+        MappingMongoConverter converter = converter(TransactionProperties.Storage.Layout.FULL);
+        ReactiveMongoTemplate template = mock(ReactiveMongoTemplate.class);
+        when(template.getConverter()).thenReturn(converter);
+        when(template.aggregate(any(TypedAggregation.class), eq(TransactionTotals.class))).thenReturn(Flux.empty());
+        when(template.aggregate(any(TypedAggregation.class), eq(ProductRevenue.class))).thenReturn(Flux.empty());
+        ITransactionRepositoryCustomImpl repository = new ITransactionRepositoryCustomImpl(template, template, template,
+                properties, new TransactionLayoutMigration(template, properties));
+
+        StepVerifier.create(repository.aggregateTotals(TransactionFilter.none(), StatsBucket.DAY)).verifyComplete();
+        StepVerifier.create(repository.aggregateRevenueByProduct(TransactionFilter.none(), StatsBucket.MONTH)).verifyComplete();
+
+        ArgumentCaptor<TypedAggregation<Transaction>> aggregations = ArgumentCaptor.forClass(TypedAggregation.class);
+        verify(template).aggregate(aggregations.capture(), eq(TransactionTotals.class));
+        verify(template).aggregate(aggregations.capture(), eq(ProductRevenue.class));
+        AggregationOperationContext context = new TypeBasedAggregationOperationContext(Transaction.class,
+                converter.getMappingContext(), new QueryMapper(converter));
+        for (TypedAggregation<Transaction> aggregation : aggregations.getAllValues()) {
+            Document bucket = aggregation.toPipeline(context).stream()
+                    .filter(stage -> stage.containsKey("$project"))
+                    .map(stage -> (Document) ((Document) stage.get("$project")).get("bucket"))
+                    .filter(Objects::nonNull)
+                    .findFirst()
+                    .orElseThrow(AssertionError::new);
+            Document convert = (Document) ((Document) ((Document) bucket.get("$dateToString")).get("date")).get("$convert");
+            assertEquals("$_id", convert.get("input"));
+            assertTrue(convert.containsKey("onError") && convert.get("onError") == null);
+            assertTrue(convert.containsKey("onNull") && convert.get("onNull") == null);
+        }
+    }
+
+    @Test
+    public void statsEndpoints_ShouldPassTheFilterAndBucketOn() {
+        TransactionTotals totals = TransactionTotals.builder().paymentType(PaymentType.CREDIT_CARD)
+                .status(PaymentStatus.CAPTURED).bucket("2024-05-01").count(2).totalAmount(30.5).build();
+        ProductRevenue revenue = ProductRevenue.builder().productName("bike").quantity(3).revenue(75.0).build();
+        when(transactionRepository.aggregateTotals(any(TransactionFilter.class), eq(StatsBucket.DAY))).thenReturn(Flux.just(totals));
+        when(transactionRepository.aggregateRevenueByProduct(any(TransactionFilter.class), isNull())).thenReturn(Flux.just(revenue));
+        WebTestClient client = WebTestClient.bindToController(new TransactionStatsController(transactionService))
+                .controllerAdvice(new TransactionExceptionHandler())
+                .build();
+
+        client.get().uri("/transactions/stats/totals?status=CAPTURED&bucket=DAY").exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].bucket").isEqualTo("2024-05-01")
+                .jsonPath("$[0].count").isEqualTo(2)
+                .jsonPath("$[0].totalAmount").isEqualTo(30.5);
+        client.get().uri("/transactions/stats/revenue-by-product?minAmount=10").exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].productName").isEqualTo("bike")
+                .jsonPath("$[0].bucket").doesNotExist()
+                .jsonPath("$[0].revenue").isEqualTo(75.0);
+        client.get().uri("/transactions/stats/totals?bucket=WEEK").exchange()
+                .expectStatus().isBadRequest();
+
+        ArgumentCaptor<TransactionFilter> filters = ArgumentCaptor.forClass(TransactionFilter.class);
+        verify(transactionRepository).aggregateTotals(filters.capture(), eq(StatsBucket.DAY));
+        verify(transactionRepository).aggregateRevenueByProduct(filters.capture(), isNull());
+        assertEquals(PaymentStatus.CAPTURED, filters.getAllValues().get(0).getStatus());
+        assertEquals(10.0, filters.getAllValues().get(1).getMinAmount());
+    }
+
+    private static ChangeStreamEvent<Document> deletion(ObjectId id, String token, MappingMongoConverter converter) {
+        return new ChangeStreamEvent<>(new ChangeStreamDocument<>(OperationType.DELETE,
+                new BsonDocument("_data", new BsonString(token)), null, null, null,
+                new BsonDocument("_id", new BsonObjectId(id)), null, null, null, null), Document.class, converter);
+    }
+
+    // The converter the application builds for the layout, see MongoStorageConfiguration
+    private static MappingMongoConverter converter(TransactionProperties.Storage.Layout layout) {
+        MongoCustomConversions conversions = MongoStorageConfiguration.conversions(layout);
+        MongoMappingContext context = new MongoMappingContext();
+        if (layout == TransactionProperties.Storage.Layout.COMPACT) {
+            context.setFieldNamingStrategy(new CompactFieldNamingStrategy());
+        }
+        context.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, context);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        return converter;
+    }
+
+    @Test
+    public void connectionPoolWait_ShouldTimeEveryCheckOut() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ConnectionPoolWaitListener listener = new ConnectionPoolWaitListener(registry);
+        ServerId server = new ServerId(new ClusterId("cluster"), new ServerAddress("localhost", 27017));
+        listener.connectionPoolCreated(new ConnectionPoolCreatedEvent(server, ConnectionPoolSettings.builder().build()));
+
+        listener.connectionCheckOutStarted(new ConnectionCheckOutStartedEvent(server));
+        listener.connectionCheckOutStarted(new ConnectionCheckOutStartedEvent(server));
+        listener.connectionCheckedOut(new ConnectionCheckedOutEvent(new ConnectionId(server)));
+        listener.connectionCheckOutFailed(new ConnectionCheckOutFailedEvent(server, ConnectionCheckOutFailedEvent.Reason.TIMEOUT));
+
+        assertEquals(1, registry.get("mongodb.driver.pool.wait").tag("outcome", "checked_out").timer().count());
+        assertEquals(1, registry.get("mongodb.driver.pool.wait").tag("outcome", "failed").timer().count());
+        listener.connectionPoolClosed(new ConnectionPoolClosedEvent(server));
+        assertTrue(registry.find("mongodb.driver.pool.wait").timers().isEmpty());
+
+        assertEquals(ReadPreference.primary(), MongoClientConfiguration.readPreference(TransactionProperties.Mongo.Read.PRIMARY, null));
+        assertEquals(ReadPreference.secondaryPreferred(90, TimeUnit.SECONDS),
+                MongoClientConfiguration.readPreference(TransactionProperties.Mongo.Read.SECONDARY_PREFERRED, Duration.ofSeconds(90)));
+    }
+
+    @Test
+    public void uriTemplate_ShouldFoldEveryIdWhateverItsFormat() {
+        assertEquals("/transactions/{id}", MetricsConfiguration.uriTemplate("/transactions/62c4a0a0e4b0a1a2a3a4a5a6"));
+        assertEquals("/transactions/{id}", MetricsConfiguration.uriTemplate("/transactions/order-1234?view=summary"));
+        assertEquals("/transactions/{id}/history", MetricsConfiguration.uriTemplate("/transactions/order-1234/history"));
+        assertEquals("/transactions/{id}/{id}", MetricsConfiguration.uriTemplate("/transactions/order-1234/unknown"));
+        assertEquals("/transactions/_capture", MetricsConfiguration.uriTemplate("/transactions/_capture"));
+        assertEquals("/transactions/stats/totals", MetricsConfiguration.uriTemplate("/transactions/stats/totals?from=2022"));
+        assertEquals("/transactions", MetricsConfiguration.uriTemplate("/transactions?status=NEW"));
+        assertEquals("/actuator/prometheus", MetricsConfiguration.uriTemplate("/actuator/prometheus"));
+    }
+}